@@ -2,6 +2,10 @@ public class AssignmentNode implements ASTNode {
     private String variableName;
     private ASTNode value;
 
+    // Frame slot assigned by the Resolver, and whether it is in the global frame
+    private int slot = -1;
+    private boolean global;
+
     public AssignmentNode(String variableName, ASTNode value) {
         this.variableName = variableName;
         this.value = value;
@@ -15,6 +19,19 @@ public class AssignmentNode implements ASTNode {
         return value;
     }
 
+    public int getSlot() {
+        return slot;
+    }
+
+    public boolean isGlobal() {
+        return global;
+    }
+
+    public void setSlot(int slot, boolean global) {
+        this.slot = slot;
+        this.global = global;
+    }
+
     @Override
     public String toString() {
         return "AssignmentNode{variableName='" + variableName + "', value=" + value + "}";
@@ -0,0 +1,403 @@
+// AstOptimizer.java
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+// Optimization pass run between parsing and interpretation. Literals are parsed once into
+// ConstantNodes, and binary operations whose operands are all constant are computed ahead of time.
+// Loops have their invariant expressions hoisted out, and counting loops become CountedLoopNodes.
+public class AstOptimizer {
+    // Names of the variables holding hoisted expressions start with a character the tokenizer never
+    // puts in an identifier, so they can't clash with the program's own
+    private static final String TEMPORARY_PREFIX = "$";
+
+    // Scratch register used while folding
+    private ValueRegister folded = new ValueRegister();
+
+    // Temporaries handed out so far; never reset, so each name is used by one loop only
+    private int temporaryCount;
+
+    // While hoisting out of a loop: whether nothing the first iteration has run so far could fail
+    // or be seen, so an expression evaluated before the loop instead fails at the same point
+    private boolean unobserved;
+
+    public ASTNode optimize(ASTNode node) {
+        if (node == null) {
+            return null;
+        }
+        if (node instanceof BlockNode) {
+            List<ASTNode> statements = new ArrayList<>();
+            for (ASTNode statement : ((BlockNode) node).getStatements()) {
+                statements.add(optimize(statement));
+            }
+            return new BlockNode(statements);
+        } else if (node instanceof WhileStatementNode) {
+            WhileStatementNode whileStmtNode = (WhileStatementNode) node;
+            return optimizeLoop(null, optimize(whileStmtNode.getCondition()), null,
+                    optimize(whileStmtNode.getBody()));
+        } else if (node instanceof ForStatementNode) {
+            ForStatementNode forStmtNode = (ForStatementNode) node;
+            return optimizeLoop(optimize(forStmtNode.getInitialization()), optimize(forStmtNode.getCondition()),
+                    optimize(forStmtNode.getIncrement()), optimize(forStmtNode.getBody()));
+        } else if (node instanceof IfStatementNode) {
+            IfStatementNode ifStmtNode = (IfStatementNode) node;
+            return new IfStatementNode(optimize(ifStmtNode.getCondition()), optimize(ifStmtNode.getThenBranch()),
+                    optimize(ifStmtNode.getElseBranch()));
+        } else if (node instanceof VariableDeclarationNode) {
+            VariableDeclarationNode varDeclNode = (VariableDeclarationNode) node;
+            return new VariableDeclarationNode(varDeclNode.getVariableName(), optimize(varDeclNode.getValue()));
+        } else if (node instanceof AssignmentNode) {
+            AssignmentNode assignmentNode = (AssignmentNode) node;
+            return new AssignmentNode(assignmentNode.getVariableName(), optimize(assignmentNode.getValue()));
+        } else if (node instanceof PrintStatementNode) {
+            return new PrintStatementNode(optimize(((PrintStatementNode) node).getExpression()));
+        } else if (node instanceof ReturnStatementNode) {
+            return new ReturnStatementNode(optimize(((ReturnStatementNode) node).getExpression()));
+        } else if (node instanceof FunctionCallNode) {
+            FunctionCallNode funcCallNode = (FunctionCallNode) node;
+            List<ASTNode> arguments = new ArrayList<>();
+            for (ASTNode argument : funcCallNode.getArguments()) {
+                arguments.add(optimize(argument));
+            }
+            return new FunctionCallNode(funcCallNode.getFunctionName(), arguments);
+        } else if (node instanceof FunctionDeclarationNode) {
+            FunctionDeclarationNode funcDeclNode = (FunctionDeclarationNode) node;
+            return new FunctionDeclarationNode(funcDeclNode.getFunctionName(), funcDeclNode.getParameters(),
+                    optimize(funcDeclNode.getBody()));
+        } else if (node instanceof BinaryOperationNode) {
+            return optimizeBinaryOperation((BinaryOperationNode) node);
+        } else if (node instanceof NumberNode) {
+            try {
+                return new ConstantNode(Values.INT, Integer.parseInt(((NumberNode) node).getValue()));
+            } catch (NumberFormatException e) {
+                return node; // Leave the error to be reported when the literal is evaluated
+            }
+        } else if (node instanceof FloatNode) {
+            return new ConstantNode(Values.DOUBLE, Values.bits(Double.parseDouble(((FloatNode) node).getValue())));
+        } else if (node instanceof StringNode) {
+            return new ConstantNode(((StringNode) node).getValue(), 0);
+        } else if (node instanceof VariableReferenceNode) {
+            // Copied, since the Resolver writes slots into it and the parsed tree may be run again
+            return new VariableReferenceNode(((VariableReferenceNode) node).getVariableName());
+        }
+        // Constants are left as they are
+        return node;
+    }
+
+    public static boolean isTemporary(String variableName) {
+        return variableName.startsWith(TEMPORARY_PREFIX);
+    }
+
+    // Rebuilds a loop whose parts are already optimized; increment is null for a joparyant loop.
+    //
+    // Expressions the loop evaluates on every iteration and whose variables it never assigns are
+    // computed once into temporaries. They are only computed once the condition is known to hold,
+    // so a loop that never runs doesn't evaluate them either:
+    //     init; Jar (condition) { $0 = invariant; loop with $0 }
+    // Only expressions the first iteration reaches before anything that could print, return or fail
+    // are hoisted, so a hoisted expression that fails reports the error the loop would have.
+    // A loop that calls functions is left alone, since the callee may assign any global.
+    private ASTNode optimizeLoop(ASTNode initialization, ASTNode condition, ASTNode increment, ASTNode body) {
+        Set<String> assigned = new HashSet<>();
+        boolean calls = collectAssignments(condition, assigned) | collectAssignments(increment, assigned)
+                | collectAssignments(body, assigned);
+
+        ASTNode entryCondition = condition;
+        List<ASTNode> temporaries = new ArrayList<>();
+        if (!calls) {
+            // The variables of the condition are defined once it has held
+            Set<String> defined = new HashSet<>();
+            collectReferences(condition, defined);
+            unobserved = true;
+            condition = hoist(condition, assigned, defined, temporaries);
+            unobserved = true; // The entry condition evaluates all of it first
+            body = hoistStatements(body, assigned, defined, temporaries);
+        }
+
+        // A joparyant loop whose body ends by stepping the counter is a counted loop too
+        if (increment == null && body instanceof BlockNode) {
+            List<ASTNode> statements = ((BlockNode) body).getStatements();
+            if (!statements.isEmpty() && isCountedLoop(condition, statements.get(statements.size() - 1), assigned,
+                    calls)) {
+                increment = statements.get(statements.size() - 1);
+                body = new BlockNode(new ArrayList<>(statements.subList(0, statements.size() - 1)));
+            }
+        }
+
+        ASTNode loopInitialization = temporaries.isEmpty() ? initialization : null;
+        ASTNode loop;
+        if (isCountedLoop(condition, increment, assigned, calls)) {
+            loop = new CountedLoopNode(loopInitialization, (BinaryOperationNode) condition, (AssignmentNode) increment,
+                    body);
+        } else if (increment == null) {
+            loop = new WhileStatementNode(condition, body);
+        } else {
+            loop = new ForStatementNode(loopInitialization, condition, increment, body);
+        }
+        if (temporaries.isEmpty()) {
+            return loop;
+        }
+
+        temporaries.add(loop);
+        ASTNode guarded = new IfStatementNode(entryCondition, new BlockNode(temporaries), null);
+        return initialization == null ? guarded : new BlockNode(Arrays.asList(initialization, guarded));
+    }
+
+    // Matches a condition i < bound or i <= bound and an increment i = i + 1, where bound is an int
+    // constant or a variable the loop doesn't assign
+    private boolean isCountedLoop(ASTNode condition, ASTNode increment, Set<String> assigned, boolean calls) {
+        if (!(condition instanceof BinaryOperationNode) || !(increment instanceof AssignmentNode)) {
+            return false;
+        }
+        BinaryOperationNode comparison = (BinaryOperationNode) condition;
+        if ((comparison.getOperator() != Operator.LT && comparison.getOperator() != Operator.LE)
+                || !(comparison.getLeft() instanceof VariableReferenceNode)) {
+            return false;
+        }
+        String counter = ((VariableReferenceNode) comparison.getLeft()).getVariableName();
+        ASTNode bound = comparison.getRight();
+        boolean invariantBound = isIntConstant(bound)
+                || (bound instanceof VariableReferenceNode && !calls
+                        && !assigned.contains(((VariableReferenceNode) bound).getVariableName()));
+        if (!invariantBound) {
+            return false;
+        }
+
+        AssignmentNode step = (AssignmentNode) increment;
+        if (!step.getVariableName().equals(counter) || !(step.getValue() instanceof BinaryOperationNode)) {
+            return false;
+        }
+        BinaryOperationNode sum = (BinaryOperationNode) step.getValue();
+        return sum.getOperator() == Operator.ADD && sum.getLeft() instanceof VariableReferenceNode
+                && ((VariableReferenceNode) sum.getLeft()).getVariableName().equals(counter)
+                && isIntConstant(sum.getRight()) && ((ConstantNode) sum.getRight()).getBits() == 1;
+    }
+
+    private boolean isIntConstant(ASTNode node) {
+        return node instanceof ConstantNode && ((ConstantNode) node).getTag() == Values.INT;
+    }
+
+    // Adds the names a piece of code assigns to assigned, and returns whether it calls or declares
+    // a function
+    private boolean collectAssignments(ASTNode node, Set<String> assigned) {
+        if (node instanceof BlockNode) {
+            boolean calls = false;
+            for (ASTNode statement : ((BlockNode) node).getStatements()) {
+                calls |= collectAssignments(statement, assigned);
+            }
+            return calls;
+        } else if (node instanceof WhileStatementNode) {
+            WhileStatementNode whileStmtNode = (WhileStatementNode) node;
+            return collectAssignments(whileStmtNode.getCondition(), assigned)
+                    | collectAssignments(whileStmtNode.getBody(), assigned);
+        } else if (node instanceof ForStatementNode) {
+            ForStatementNode forStmtNode = (ForStatementNode) node;
+            return collectAssignments(forStmtNode.getInitialization(), assigned)
+                    | collectAssignments(forStmtNode.getCondition(), assigned)
+                    | collectAssignments(forStmtNode.getIncrement(), assigned)
+                    | collectAssignments(forStmtNode.getBody(), assigned);
+        } else if (node instanceof IfStatementNode) {
+            IfStatementNode ifStmtNode = (IfStatementNode) node;
+            return collectAssignments(ifStmtNode.getCondition(), assigned)
+                    | collectAssignments(ifStmtNode.getThenBranch(), assigned)
+                    | collectAssignments(ifStmtNode.getElseBranch(), assigned);
+        } else if (node instanceof VariableDeclarationNode) {
+            VariableDeclarationNode varDeclNode = (VariableDeclarationNode) node;
+            assigned.add(varDeclNode.getVariableName());
+            return collectAssignments(varDeclNode.getValue(), assigned);
+        } else if (node instanceof AssignmentNode) {
+            AssignmentNode assignmentNode = (AssignmentNode) node;
+            assigned.add(assignmentNode.getVariableName());
+            return collectAssignments(assignmentNode.getValue(), assigned);
+        } else if (node instanceof PrintStatementNode) {
+            return collectAssignments(((PrintStatementNode) node).getExpression(), assigned);
+        } else if (node instanceof ReturnStatementNode) {
+            return collectAssignments(((ReturnStatementNode) node).getExpression(), assigned);
+        } else if (node instanceof BinaryOperationNode) {
+            BinaryOperationNode binOp = (BinaryOperationNode) node;
+            return collectAssignments(binOp.getLeft(), assigned) | collectAssignments(binOp.getRight(), assigned);
+        } else if (node instanceof ConcatNode) {
+            boolean calls = false;
+            for (ASTNode part : ((ConcatNode) node).getPartArray()) {
+                calls |= collectAssignments(part, assigned);
+            }
+            return calls;
+        }
+        return node instanceof FunctionCallNode || node instanceof FunctionDeclarationNode;
+    }
+
+    // Hoists out of the expressions of the statements a loop body runs on every iteration, in the
+    // order it runs them, until one could print, return or fail. Branches and nested loop bodies
+    // are left alone, and end the hoisting: they may never run, and may do anything if they do.
+    private ASTNode hoistStatements(ASTNode node, Set<String> assigned, Set<String> defined,
+            List<ASTNode> temporaries) {
+        if (!unobserved) {
+            return node;
+        }
+        if (node instanceof BlockNode) {
+            List<ASTNode> statements = new ArrayList<>();
+            for (ASTNode statement : ((BlockNode) node).getStatements()) {
+                statements.add(hoistStatements(statement, assigned, defined, temporaries));
+            }
+            return new BlockNode(statements);
+        } else if (node instanceof AssignmentNode) {
+            AssignmentNode assignmentNode = (AssignmentNode) node;
+            ASTNode value = hoist(assignmentNode.getValue(), assigned, defined, temporaries);
+            defined.add(assignmentNode.getVariableName());
+            return new AssignmentNode(assignmentNode.getVariableName(), value);
+        } else if (node instanceof PrintStatementNode) {
+            ASTNode expression = hoist(((PrintStatementNode) node).getExpression(), assigned, defined, temporaries);
+            unobserved = false;
+            return new PrintStatementNode(expression);
+        } else if (node instanceof IfStatementNode) {
+            IfStatementNode ifStmtNode = (IfStatementNode) node;
+            ASTNode condition = hoist(ifStmtNode.getCondition(), assigned, defined, temporaries);
+            unobserved = false;
+            return new IfStatementNode(condition, ifStmtNode.getThenBranch(), ifStmtNode.getElseBranch());
+        }
+        unobserved = false;
+        return node;
+    }
+
+    // Replaces the largest invariant subexpressions of an expression with temporaries, going through
+    // it in evaluation order for as long as nothing evaluated could fail. Reading a variable fails
+    // unless it is defined, and every operator but == and != fails on some operands.
+    private ASTNode hoist(ASTNode node, Set<String> assigned, Set<String> defined, List<ASTNode> temporaries) {
+        if (!unobserved) {
+            return node;
+        }
+        if (node instanceof VariableReferenceNode) {
+            unobserved = defined.contains(((VariableReferenceNode) node).getVariableName());
+            return node;
+        }
+        if (!(node instanceof BinaryOperationNode) && !(node instanceof ConcatNode)) {
+            return node; // Constants are as cheap as a temporary
+        }
+        if (isInvariant(node, assigned)) {
+            String name = TEMPORARY_PREFIX + temporaryCount++;
+            temporaries.add(new AssignmentNode(name, node));
+            collectReferences(node, defined);
+            return new VariableReferenceNode(name);
+        }
+        if (node instanceof BinaryOperationNode) {
+            BinaryOperationNode binOp = (BinaryOperationNode) node;
+            ASTNode left = hoist(binOp.getLeft(), assigned, defined, temporaries);
+            ASTNode right = hoist(binOp.getRight(), assigned, defined, temporaries);
+            Operator operator = binOp.getOperator();
+            if (operator != Operator.EQ && operator != Operator.NE) {
+                unobserved = false;
+            }
+            return left == binOp.getLeft() && right == binOp.getRight() ? binOp
+                    : new BinaryOperationNode(left, operator, right);
+        }
+        List<ASTNode> parts = new ArrayList<>();
+        for (ASTNode part : ((ConcatNode) node).getPartArray()) {
+            parts.add(hoist(part, assigned, defined, temporaries));
+        }
+        return new ConcatNode(parts);
+    }
+
+    // Adds the names of the variables an expression reads to names
+    private void collectReferences(ASTNode node, Set<String> names) {
+        if (node instanceof VariableReferenceNode) {
+            names.add(((VariableReferenceNode) node).getVariableName());
+        } else if (node instanceof BinaryOperationNode) {
+            BinaryOperationNode binOp = (BinaryOperationNode) node;
+            collectReferences(binOp.getLeft(), names);
+            collectReferences(binOp.getRight(), names);
+        } else if (node instanceof ConcatNode) {
+            for (ASTNode part : ((ConcatNode) node).getPartArray()) {
+                collectReferences(part, names);
+            }
+        }
+    }
+
+    private boolean isInvariant(ASTNode node, Set<String> assigned) {
+        if (node instanceof ConstantNode) {
+            return true;
+        } else if (node instanceof VariableReferenceNode) {
+            return !assigned.contains(((VariableReferenceNode) node).getVariableName());
+        } else if (node instanceof BinaryOperationNode) {
+            BinaryOperationNode binOp = (BinaryOperationNode) node;
+            return isInvariant(binOp.getLeft(), assigned) && isInvariant(binOp.getRight(), assigned);
+        } else if (node instanceof ConcatNode) {
+            for (ASTNode part : ((ConcatNode) node).getPartArray()) {
+                if (!isInvariant(part, assigned)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private ASTNode optimizeBinaryOperation(BinaryOperationNode binOp) {
+        ASTNode left = optimize(binOp.getLeft());
+        ASTNode right = optimize(binOp.getRight());
+        Operator operator = binOp.getOperator();
+
+        if (left instanceof ConstantNode && right instanceof ConstantNode) {
+            ConstantNode leftConstant = (ConstantNode) left;
+            ConstantNode rightConstant = (ConstantNode) right;
+            try {
+                Operators.apply(leftConstant.getTag(), leftConstant.getBits(), rightConstant.getTag(),
+                        rightConstant.getBits(), operator.getOpcode(), folded);
+                Object tag = folded.getTag();
+                return new ConstantNode(tag instanceof Rope ? tag.toString() : tag, folded.getBits());
+            } catch (RuntimeException e) {
+                // Errors such as division by zero are reported when the expression runs
+            }
+        }
+
+        // (x + "a") + "b" is always a concatenation, so it can become x + "ab"
+        if (operator == Operator.ADD && isStringConstant(right) && left instanceof BinaryOperationNode) {
+            BinaryOperationNode inner = (BinaryOperationNode) left;
+            if (inner.getOperator() == Operator.ADD && isStringConstant(inner.getRight())) {
+                String joined = ((ConstantNode) inner.getRight()).getTag().toString()
+                        + ((ConstantNode) right).getTag();
+                return new BinaryOperationNode(inner.getLeft(), operator, new ConstantNode(joined, 0));
+            }
+        }
+
+        // Longer chains that are certainly concatenation are joined in one pass
+        if (operator == Operator.ADD && left instanceof ConcatNode) {
+            List<ASTNode> parts = new ArrayList<>(((ConcatNode) left).getParts());
+            addPart(parts, right);
+            return new ConcatNode(parts);
+        }
+        if (operator == Operator.ADD && left instanceof BinaryOperationNode) {
+            BinaryOperationNode inner = (BinaryOperationNode) left;
+            if (inner.getOperator() == Operator.ADD && (isString(inner.getLeft()) || isString(inner.getRight()))) {
+                List<ASTNode> parts = new ArrayList<>();
+                parts.add(inner.getLeft());
+                parts.add(inner.getRight());
+                addPart(parts, right);
+                return new ConcatNode(parts);
+            }
+        }
+
+        return new BinaryOperationNode(left, operator, right);
+    }
+
+    // Adds a part to a concatenation, merging it into the last part if both are string constants
+    private void addPart(List<ASTNode> parts, ASTNode part) {
+        int last = parts.size() - 1;
+        if (isStringConstant(part) && isStringConstant(parts.get(last))) {
+            String joined = ((ConstantNode) parts.get(last)).getTag().toString() + ((ConstantNode) part).getTag();
+            parts.set(last, new ConstantNode(joined, 0));
+        } else {
+            parts.add(part);
+        }
+    }
+
+    // Whether an expression always produces a string
+    private boolean isString(ASTNode node) {
+        return isStringConstant(node) || node instanceof ConcatNode;
+    }
+
+    private boolean isStringConstant(ASTNode node) {
+        return node instanceof ConstantNode && ((ConstantNode) node).isString();
+    }
+}
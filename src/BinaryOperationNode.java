@@ -1,19 +1,31 @@
 public class BinaryOperationNode implements ASTNode {
+    // Specializations: the operand types this node expects, based on what it has seen so far.
+    // A node starts UNINITIALIZED, takes the specialization matching its first operands, and
+    // becomes GENERIC for good once operands of other types show up.
+    public static final int UNINITIALIZED = 0;
+    public static final int INT_INT = 1;
+    public static final int DOUBLE_DOUBLE = 2;
+    public static final int CONCAT = 3;
+    public static final int GENERIC = 4;
+
     private ASTNode left;
-    private String operator;
+    private Operator operator;
     private ASTNode right;
+    private int opcode; // Operator.getOpcode, kept for the switches in Operators
+    private int specialization = UNINITIALIZED;
 
-    public BinaryOperationNode(ASTNode left, String operator, ASTNode right) {
+    public BinaryOperationNode(ASTNode left, Operator operator, ASTNode right) {
         this.left = left;
         this.operator = operator;
         this.right = right;
+        this.opcode = operator.getOpcode();
     }
 
     public ASTNode getLeft() {
         return left;
     }
 
-    public String getOperator() {
+    public Operator getOperator() {
         return operator;
     }
 
@@ -21,8 +33,64 @@ public class BinaryOperationNode implements ASTNode {
         return right;
     }
 
+    public int getOpcode() {
+        return opcode;
+    }
+
+    public int getSpecialization() {
+        return specialization;
+    }
+
+    // Applies the operator with this node's specialization, so monomorphic expressions skip straight
+    // to the typed operation after a single guard
+    public void apply(Object leftTag, long leftBits, Object rightTag, long rightBits, ValueRegister result) {
+        switch (specialization) {
+            case INT_INT:
+                if (leftTag == Values.INT && rightTag == Values.INT) {
+                    Operators.apply((int) leftBits, (int) rightBits, opcode, result);
+                    return;
+                }
+                break;
+            case DOUBLE_DOUBLE:
+                if (leftTag == Values.DOUBLE && rightTag == Values.DOUBLE) {
+                    Operators.apply(Double.longBitsToDouble(leftBits), Double.longBitsToDouble(rightBits), opcode,
+                            result);
+                    return;
+                }
+                break;
+            case CONCAT:
+                if (!Values.isPrimitive(leftTag) || !Values.isPrimitive(rightTag)) {
+                    Operators.concat(leftTag, leftBits, rightTag, rightBits, result);
+                    return;
+                }
+                break;
+            case GENERIC:
+                Operators.apply(leftTag, leftBits, rightTag, rightBits, opcode, result);
+                return;
+        }
+
+        // First execution, or the guard failed: respecialize and take the generic path this time
+        specialize(leftTag, rightTag);
+        Operators.apply(leftTag, leftBits, rightTag, rightBits, opcode, result);
+    }
+
+    // Records the operand types of an execution whose guard did not match the current specialization
+    private void specialize(Object leftTag, Object rightTag) {
+        int observed;
+        if (!Values.isPrimitive(leftTag) || !Values.isPrimitive(rightTag)) {
+            observed = operator.isComparison() ? GENERIC : CONCAT;
+        } else if (leftTag == Values.INT && rightTag == Values.INT) {
+            observed = INT_INT;
+        } else if (leftTag == Values.DOUBLE && rightTag == Values.DOUBLE) {
+            observed = DOUBLE_DOUBLE;
+        } else {
+            observed = GENERIC;
+        }
+        specialization = specialization == UNINITIALIZED ? observed : GENERIC;
+    }
+
     @Override
     public String toString() {
-        return "BinaryOperationNode{" + "left=" + left + ", operator='" + operator + '\'' + ", right=" + right + '}';
+        return "BinaryOperationNode{" + "left=" + left + ", operator='" + operator.getSymbol() + '\'' + ", right=" + right + '}';
     }
 }
@@ -0,0 +1,292 @@
+// BytecodeCompiler.java
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Compiles an optimized and resolved AST into flat bytecode for the MarathiVM.
+// Function names are numbered once per compiler, so code compiled in separate calls (for example
+// streamed top-level statements) agrees on which function a call refers to.
+public class BytecodeCompiler {
+    private Map<String, Integer> functionIds = new HashMap<>();
+    private List<String> functionNames = new ArrayList<>();
+
+    // State of the function currently being compiled
+    private FunctionBuilder builder;
+
+    // Compiles top-level code into a function that takes no parameters and keeps its variables in globals
+    public BytecodeFunction compileProgram(ASTNode node) {
+        FunctionBuilder enclosing = builder;
+        builder = new FunctionBuilder();
+        try {
+            compileStatement(node);
+            builder.emit(Opcodes.UNDEFINED);
+            builder.adjustStack(1);
+            builder.emit(Opcodes.RETURN);
+            builder.adjustStack(-1);
+            return builder.build("<program>", -1, 0, 0);
+        } finally {
+            builder = enclosing;
+        }
+    }
+
+    public int getFunctionCount() {
+        return functionNames.size();
+    }
+
+    public String getFunctionName(int id) {
+        return functionNames.get(id);
+    }
+
+    private int functionId(String name) {
+        Integer id = functionIds.get(name);
+        if (id == null) {
+            id = functionNames.size();
+            functionIds.put(name, id);
+            functionNames.add(name);
+        }
+        return id;
+    }
+
+    private void compileStatement(ASTNode node) {
+        if (node == null) {
+            return;
+        }
+        if (node instanceof BlockNode) {
+            for (ASTNode statement : ((BlockNode) node).getStatements()) {
+                compileStatement(statement);
+            }
+        } else if (node instanceof WhileStatementNode) {
+            WhileStatementNode whileStmtNode = (WhileStatementNode) node;
+            int loopStart = builder.length();
+            compileExpression(whileStmtNode.getCondition());
+            int exitJump = builder.emitJump(Opcodes.JUMP_IF_FALSE);
+            compileStatement(whileStmtNode.getBody());
+            builder.emit(Opcodes.JUMP, loopStart);
+            builder.patch(exitJump);
+        } else if (node instanceof ForStatementNode) {
+            ForStatementNode forStmtNode = (ForStatementNode) node;
+            compileStatement(forStmtNode.getInitialization());
+            int loopStart = builder.length();
+            compileExpression(forStmtNode.getCondition());
+            int exitJump = builder.emitJump(Opcodes.JUMP_IF_FALSE);
+            compileStatement(forStmtNode.getBody());
+            compileStatement(forStmtNode.getIncrement());
+            builder.emit(Opcodes.JUMP, loopStart);
+            builder.patch(exitJump);
+        } else if (node instanceof IfStatementNode) {
+            IfStatementNode ifStmtNode = (IfStatementNode) node;
+            compileExpression(ifStmtNode.getCondition());
+            int elseJump = builder.emitJump(Opcodes.JUMP_IF_FALSE);
+            compileStatement(ifStmtNode.getThenBranch());
+            if (ifStmtNode.getElseBranch() != null) {
+                int endJump = builder.emitJump(Opcodes.JUMP);
+                builder.patch(elseJump);
+                compileStatement(ifStmtNode.getElseBranch());
+                builder.patch(endJump);
+            } else {
+                builder.patch(elseJump);
+            }
+        } else if (node instanceof VariableDeclarationNode) {
+            VariableDeclarationNode varDeclNode = (VariableDeclarationNode) node;
+            compileExpression(varDeclNode.getValue());
+            compileStore(varDeclNode.getSlot(), varDeclNode.isGlobal());
+        } else if (node instanceof AssignmentNode) {
+            AssignmentNode assignmentNode = (AssignmentNode) node;
+            compileExpression(assignmentNode.getValue());
+            compileStore(assignmentNode.getSlot(), assignmentNode.isGlobal());
+        } else if (node instanceof PrintStatementNode) {
+            compileExpression(((PrintStatementNode) node).getExpression());
+            builder.emit(Opcodes.PRINT);
+            builder.adjustStack(-1);
+        } else if (node instanceof ReturnStatementNode) {
+            ASTNode expression = ((ReturnStatementNode) node).getExpression();
+            if (expression != null) {
+                compileExpression(expression);
+            } else {
+                builder.emit(Opcodes.UNDEFINED); // Returns no value
+                builder.adjustStack(1);
+            }
+            builder.emit(Opcodes.RETURN);
+            builder.adjustStack(-1);
+        } else if (node instanceof FunctionCallNode) {
+            compileCall((FunctionCallNode) node);
+            builder.emit(Opcodes.POP); // The result of a call used as a statement is discarded
+            builder.adjustStack(-1);
+        } else if (node instanceof FunctionDeclarationNode) {
+            BytecodeFunction function = compileFunction((FunctionDeclarationNode) node);
+            builder.emit(Opcodes.DECLARE_FUNCTION, builder.addFunction(function));
+        } else {
+            throw new RuntimeException("Unexpected AST node type: " + node.getClass().getName());
+        }
+    }
+
+    private BytecodeFunction compileFunction(FunctionDeclarationNode funcDeclNode) {
+        int id = functionId(funcDeclNode.getFunctionName());
+        FunctionBuilder enclosing = builder;
+        builder = new FunctionBuilder();
+        try {
+            compileStatement(funcDeclNode.getBody());
+            builder.emit(Opcodes.UNDEFINED);
+            builder.adjustStack(1);
+            builder.emit(Opcodes.RETURN);
+            builder.adjustStack(-1);
+            return builder.build(funcDeclNode.getFunctionName(), id, funcDeclNode.getParameters().size(),
+                    funcDeclNode.getFrameSize());
+        } finally {
+            builder = enclosing;
+        }
+    }
+
+    private void compileCall(FunctionCallNode funcCallNode) {
+        List<ASTNode> arguments = funcCallNode.getArguments();
+        for (ASTNode argument : arguments) {
+            compileExpression(argument);
+        }
+        builder.emit(Opcodes.CALL, functionId(funcCallNode.getFunctionName()), arguments.size());
+        builder.adjustStack(1 - arguments.size());
+    }
+
+    private void compileStore(int slot, boolean global) {
+        builder.emit(global ? Opcodes.STORE_GLOBAL : Opcodes.STORE_LOCAL, slot);
+        builder.adjustStack(-1);
+    }
+
+    private void compileExpression(ASTNode node) {
+        if (node instanceof VariableReferenceNode) {
+            VariableReferenceNode reference = (VariableReferenceNode) node;
+            builder.emit(reference.isGlobal() ? Opcodes.LOAD_GLOBAL : Opcodes.LOAD_LOCAL, reference.getSlot(),
+                    builder.addName(reference.getVariableName()));
+            builder.adjustStack(1);
+        } else if (node instanceof ConstantNode) {
+            ConstantNode constant = (ConstantNode) node;
+            builder.emit(Opcodes.CONST, builder.addConstant(constant.getTag(), constant.getBits()));
+            builder.adjustStack(1);
+        } else if (node instanceof NumberNode) {
+            builder.emit(Opcodes.CONST, builder.addConstant(Values.INT, Integer.parseInt(((NumberNode) node).getValue())));
+            builder.adjustStack(1);
+        } else if (node instanceof FloatNode) {
+            double value = Double.parseDouble(((FloatNode) node).getValue());
+            builder.emit(Opcodes.CONST, builder.addConstant(Values.DOUBLE, Values.bits(value)));
+            builder.adjustStack(1);
+        } else if (node instanceof StringNode) {
+            builder.emit(Opcodes.CONST, builder.addConstant(((StringNode) node).getValue(), 0));
+            builder.adjustStack(1);
+        } else if (node instanceof BinaryOperationNode) {
+            BinaryOperationNode binOp = (BinaryOperationNode) node;
+            compileExpression(binOp.getLeft());
+            compileExpression(binOp.getRight());
+            builder.emit(binOp.getOperator().getOpcode());
+            builder.adjustStack(-1);
+        } else if (node instanceof ConcatNode) {
+            ConcatNode concat = (ConcatNode) node;
+            ASTNode[] parts = concat.getPartArray();
+            for (ASTNode part : parts) {
+                compileExpression(part);
+            }
+            builder.emit(Opcodes.CONCAT, parts.length, concat.getCapacity());
+            builder.adjustStack(1 - parts.length);
+        } else if (node instanceof FunctionCallNode) {
+            FunctionCallNode funcCallNode = (FunctionCallNode) node;
+            compileCall(funcCallNode);
+            builder.emit(Opcodes.REQUIRE_VALUE, functionId(funcCallNode.getFunctionName()));
+        } else {
+            throw new RuntimeException("Unknown expression type: " + node.getClass().getName());
+        }
+    }
+
+    // Code, constants and names of one function while it is being compiled
+    private static class FunctionBuilder {
+        private int[] code = new int[64];
+        private int length;
+        private List<Object> constantTags = new ArrayList<>();
+        private long[] constantBits = new long[8];
+        private Map<Object, Integer> constantIndexes = new HashMap<>();
+        private List<String> names = new ArrayList<>();
+        private Map<String, Integer> nameIndexes = new HashMap<>();
+        private List<BytecodeFunction> functions = new ArrayList<>();
+        private int stackDepth;
+        private int maxStack;
+
+        int length() {
+            return length;
+        }
+
+        void emit(int... words) {
+            if (length + words.length > code.length) {
+                code = Arrays.copyOf(code, Math.max(code.length * 2, length + words.length));
+            }
+            for (int word : words) {
+                code[length++] = word;
+            }
+        }
+
+        // Emits a jump with a placeholder target and returns the position to patch
+        int emitJump(int opcode) {
+            emit(opcode, -1);
+            if (opcode == Opcodes.JUMP_IF_FALSE) {
+                adjustStack(-1);
+            }
+            return length - 1;
+        }
+
+        // Points a previously emitted jump at the current position
+        void patch(int position) {
+            code[position] = length;
+        }
+
+        void adjustStack(int delta) {
+            stackDepth += delta;
+            maxStack = Math.max(maxStack, stackDepth);
+        }
+
+        int addConstant(Object tag, long bits) {
+            // Keys are boxed so that values of different types never match: ints as Integer,
+            // doubles as Long, booleans as Boolean, and strings as themselves
+            Object key;
+            if (tag == Values.INT) {
+                key = (int) bits;
+            } else if (tag == Values.DOUBLE) {
+                key = bits;
+            } else if (tag == Values.BOOL) {
+                key = bits != 0;
+            } else {
+                key = tag;
+            }
+            Integer existing = constantIndexes.get(key);
+            if (existing != null) {
+                return existing;
+            }
+            int index = constantTags.size();
+            constantIndexes.put(key, index);
+            if (index == constantBits.length) {
+                constantBits = Arrays.copyOf(constantBits, index * 2);
+            }
+            constantTags.add(tag);
+            constantBits[index] = bits;
+            return index;
+        }
+
+        int addName(String name) {
+            Integer index = nameIndexes.get(name);
+            if (index == null) {
+                index = names.size();
+                nameIndexes.put(name, index);
+                names.add(name);
+            }
+            return index;
+        }
+
+        int addFunction(BytecodeFunction function) {
+            functions.add(function);
+            return functions.size() - 1;
+        }
+
+        BytecodeFunction build(String name, int id, int parameterCount, int frameSize) {
+            return new BytecodeFunction(name, id, parameterCount, frameSize, maxStack + 1,
+                    Arrays.copyOf(code, length), constantTags.toArray(), Arrays.copyOf(constantBits, constantTags.size()),
+                    names.toArray(new String[0]), functions.toArray(new BytecodeFunction[0]));
+        }
+    }
+}
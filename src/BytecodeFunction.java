@@ -0,0 +1,74 @@
+// BytecodeFunction.java
+// A compiled Karya function, or the top-level code of a program, ready to run on the MarathiVM
+public class BytecodeFunction {
+    private String name;
+    private int id; // Index into the VM's function table, -1 for top-level code
+    private int parameterCount;
+    private int frameSize;
+    private int maxStack; // Deepest the operand stack gets above the frame
+    private int[] code;
+    private Object[] constantTags;
+    private long[] constantBits;
+    private String[] names; // Variable names, for error messages
+    private BytecodeFunction[] functions; // Functions declared inside this code
+
+    public BytecodeFunction(String name, int id, int parameterCount, int frameSize, int maxStack, int[] code,
+            Object[] constantTags, long[] constantBits, String[] names, BytecodeFunction[] functions) {
+        this.name = name;
+        this.id = id;
+        this.parameterCount = parameterCount;
+        this.frameSize = frameSize;
+        this.maxStack = maxStack;
+        this.code = code;
+        this.constantTags = constantTags;
+        this.constantBits = constantBits;
+        this.names = names;
+        this.functions = functions;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public int getParameterCount() {
+        return parameterCount;
+    }
+
+    public int getFrameSize() {
+        return frameSize;
+    }
+
+    public int getMaxStack() {
+        return maxStack;
+    }
+
+    public int[] getCode() {
+        return code;
+    }
+
+    public Object[] getConstantTags() {
+        return constantTags;
+    }
+
+    public long[] getConstantBits() {
+        return constantBits;
+    }
+
+    public String[] getNames() {
+        return names;
+    }
+
+    public BytecodeFunction[] getFunctions() {
+        return functions;
+    }
+
+    @Override
+    public String toString() {
+        return "BytecodeFunction{" + "name='" + name + '\'' + ", parameters=" + parameterCount + ", frameSize="
+                + frameSize + ", codeLength=" + code.length + '}';
+    }
+}
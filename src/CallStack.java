@@ -0,0 +1,42 @@
+// CallStack.java
+import java.util.Arrays;
+
+// Activation records for function calls, laid out back to back in one reusable pair of arrays.
+// A frame is just a base index; a call costs its frame size, not a fresh allocation.
+// Each slot holds a value as a tag plus primitive bits (see Values).
+public class CallStack {
+    private Object[] tags = new Object[256];
+    private long[] bits = new long[256];
+    private int top; // First free slot
+
+    // Reserves a frame of frameSize slots on top of the stack and returns its base index
+    public int push(int frameSize) {
+        int base = top;
+        if (base + frameSize > tags.length) {
+            int capacity = Math.max(tags.length * 2, base + frameSize);
+            tags = Arrays.copyOf(tags, capacity);
+            bits = Arrays.copyOf(bits, capacity);
+        }
+        top = base + frameSize;
+        return base;
+    }
+
+    // Releases the frame starting at base, clearing it so the next call starts with undefined locals
+    public void pop(int base) {
+        Arrays.fill(tags, base, top, null);
+        top = base;
+    }
+
+    public Object getTag(int index) {
+        return tags[index];
+    }
+
+    public long getBits(int index) {
+        return bits[index];
+    }
+
+    public void set(int index, Object tag, long value) {
+        tags[index] = tag;
+        bits[index] = value;
+    }
+}
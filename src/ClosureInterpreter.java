@@ -0,0 +1,445 @@
+// ClosureInterpreter.java
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+
+// Runs programs by first converting the AST into a tree of closures: an Executable for each
+// statement, an Evaluator for each expression and a BooleanSupplier for each condition, each bound
+// to its children when it is built. Running the program never asks what kind of node it is looking
+// at; every closure calls its children directly.
+// Values, frames and operator semantics are the same as in the MarathiInterpreter.
+public class ClosureInterpreter implements MarathiEngine {
+    private AstOptimizer optimizer = new AstOptimizer();
+    private Resolver resolver = new Resolver();
+
+    // Global variable values, indexed by the slots the Resolver assigned
+    private Object[] globalTags = new Object[16];
+    private long[] globalBits = new long[16];
+
+    // Frames of the functions being executed; frameBase is where the current function's slots start
+    private CallStack callStack = new CallStack();
+    private int frameBase;
+
+    // Result register written by every Evaluator
+    private ValueRegister result = new ValueRegister();
+
+    // Functions currently declared
+    private Map<String, Function> functionTable = new HashMap<>();
+    private int functionTableVersion; // Changes whenever a function is declared, invalidating call-site caches
+
+    // Where Chapa output goes
+    private OutputSink outputSink = new StringOutputSink();
+
+    // A declared function with its body compiled
+    private static class Function {
+        final String name;
+        final int parameterCount;
+        final int frameSize;
+        final Executable body;
+
+        Function(String name, int parameterCount, int frameSize, Executable body) {
+            this.name = name;
+            this.parameterCount = parameterCount;
+            this.frameSize = frameSize;
+            this.body = body;
+        }
+    }
+
+    @Override
+    public void interpret(ASTNode node) {
+        node = optimizer.optimize(node);
+        resolver.resolve(node);
+        run(node);
+    }
+
+    // Every function body is compiled, and so decoded from the file, before the program starts
+    @Override
+    public void interpret(CompiledProgram program) {
+        resolver.declareGlobals(program.getGlobalNames());
+        run(program.getProgram());
+    }
+
+    private void run(ASTNode node) {
+        if (resolver.getGlobalCount() > globalTags.length) {
+            int capacity = Math.max(resolver.getGlobalCount(), globalTags.length * 2);
+            globalTags = Arrays.copyOf(globalTags, capacity);
+            globalBits = Arrays.copyOf(globalBits, capacity);
+        }
+        Executable program = compile(node);
+        DeepStack.run(program::execute);
+    }
+
+    private Executable compile(ASTNode node) {
+        if (node == null) {
+            return () -> false;
+        }
+        if (node instanceof BlockNode) {
+            List<ASTNode> statements = ((BlockNode) node).getStatements();
+            if (statements.size() == 1) {
+                return compile(statements.get(0));
+            }
+            Executable[] compiled = new Executable[statements.size()];
+            for (int i = 0; i < compiled.length; i++) {
+                compiled[i] = compile(statements.get(i));
+            }
+            return () -> {
+                for (Executable statement : compiled) {
+                    if (statement.execute()) {
+                        return true;
+                    }
+                }
+                return false;
+            };
+        } else if (node instanceof WhileStatementNode) {
+            WhileStatementNode whileStmtNode = (WhileStatementNode) node;
+            BooleanSupplier condition = compileCondition(whileStmtNode.getCondition());
+            Executable body = compile(whileStmtNode.getBody());
+            return () -> {
+                while (condition.getAsBoolean()) {
+                    if (body.execute()) {
+                        return true;
+                    }
+                    ProgramInterruptedException.check();
+                }
+                return false;
+            };
+        } else if (node instanceof CountedLoopNode) {
+            return compileCountedLoop((CountedLoopNode) node);
+        } else if (node instanceof ForStatementNode) {
+            ForStatementNode forStmtNode = (ForStatementNode) node;
+            Executable initialization = compile(forStmtNode.getInitialization());
+            BooleanSupplier condition = compileCondition(forStmtNode.getCondition());
+            Executable increment = compile(forStmtNode.getIncrement());
+            Executable body = compile(forStmtNode.getBody());
+            return () -> {
+                initialization.execute();
+                return runForLoop(condition, body, increment);
+            };
+        } else if (node instanceof IfStatementNode) {
+            IfStatementNode ifStmtNode = (IfStatementNode) node;
+            BooleanSupplier condition = compileCondition(ifStmtNode.getCondition());
+            Executable thenBranch = compile(ifStmtNode.getThenBranch());
+            if (ifStmtNode.getElseBranch() == null) {
+                return () -> condition.getAsBoolean() && thenBranch.execute();
+            }
+            Executable elseBranch = compile(ifStmtNode.getElseBranch());
+            return () -> condition.getAsBoolean() ? thenBranch.execute() : elseBranch.execute();
+        } else if (node instanceof VariableDeclarationNode) {
+            VariableDeclarationNode varDeclNode = (VariableDeclarationNode) node;
+            ASTNode value = varDeclNode.getValue();
+            if (!(value instanceof NumberNode || value instanceof FloatNode || value instanceof StringNode
+                    || value instanceof ConstantNode)) {
+                return fail("Unsupported variable declaration value type: " + value.getClass().getName());
+            }
+            return compileStore(varDeclNode.getSlot(), varDeclNode.isGlobal(), compileExpression(value));
+        } else if (node instanceof AssignmentNode) {
+            AssignmentNode assignmentNode = (AssignmentNode) node;
+            return compileStore(assignmentNode.getSlot(), assignmentNode.isGlobal(),
+                    compileExpression(assignmentNode.getValue()));
+        } else if (node instanceof PrintStatementNode) {
+            Evaluator expression = compileExpression(((PrintStatementNode) node).getExpression());
+            return () -> {
+                expression.evaluate();
+                outputSink.print(result.getTag(), result.getBits());
+                return false;
+            };
+        } else if (node instanceof ReturnStatementNode) {
+            ASTNode expressionNode = ((ReturnStatementNode) node).getExpression();
+            if (expressionNode == null) {
+                return () -> {
+                    result.set(null, 0); // Returns no value
+                    return true;
+                };
+            }
+            Evaluator expression = compileExpression(expressionNode);
+            return () -> {
+                expression.evaluate();
+                return true;
+            };
+        } else if (node instanceof FunctionDeclarationNode) {
+            FunctionDeclarationNode funcDeclNode = (FunctionDeclarationNode) node;
+            Function function = new Function(funcDeclNode.getFunctionName(), funcDeclNode.getParameters().size(),
+                    funcDeclNode.getFrameSize(), compile(funcDeclNode.getBody()));
+            return () -> {
+                functionTable.put(function.name, function);
+                functionTableVersion++;
+                return false;
+            };
+        } else if (node instanceof FunctionCallNode) {
+            return compileCall((FunctionCallNode) node);
+        }
+        // Reported when reached, as the MarathiInterpreter does
+        return fail("Unexpected AST node type: " + node.getClass().getName());
+    }
+
+    private static boolean runForLoop(BooleanSupplier condition, Executable body, Executable increment) {
+        while (condition.getAsBoolean()) {
+            if (body.execute()) {
+                return true;
+            }
+            increment.execute();
+            ProgramInterruptedException.check();
+        }
+        return false;
+    }
+
+    // As in MarathiInterpreter.interpretCountedLoopNode: the counter lives in a Java int while it and
+    // the bound are ints, and the generic loop takes over from where it stopped otherwise
+    private Executable compileCountedLoop(CountedLoopNode loop) {
+        Executable initialization = compile(loop.getInitialization());
+        Evaluator bound = compileExpression(loop.getBound());
+        BooleanSupplier condition = compileCondition(loop.getCondition());
+        Executable increment = compile(loop.getIncrement());
+        Executable body = compile(loop.getBody());
+        boolean inclusive = loop.isInclusive();
+        int slot = loop.getCounter().getSlot();
+        boolean global = loop.getCounter().isGlobal();
+        return () -> {
+            initialization.execute();
+            bound.evaluate();
+            if (result.getTag() == Values.INT) {
+                int limit = (int) result.getBits();
+                while (true) {
+                    int index = global ? slot : frameBase + slot;
+                    if ((global ? globalTags[index] : callStack.getTag(index)) != Values.INT) {
+                        break;
+                    }
+                    int counter = (int) (global ? globalBits[index] : callStack.getBits(index));
+                    if (inclusive ? counter > limit : counter >= limit) {
+                        return false;
+                    }
+                    if (body.execute()) {
+                        return true;
+                    }
+                    index = global ? slot : frameBase + slot;
+                    if ((global ? globalTags[index] : callStack.getTag(index)) != Values.INT) {
+                        increment.execute();
+                    } else {
+                        counter = (int) (global ? globalBits[index] : callStack.getBits(index));
+                        if (global) {
+                            globalBits[index] = counter + 1;
+                        } else {
+                            callStack.set(index, Values.INT, counter + 1);
+                        }
+                    }
+                    ProgramInterruptedException.check();
+                }
+            }
+            return runForLoop(condition, body, increment);
+        };
+    }
+
+    private Executable compileStore(int slot, boolean global, Evaluator value) {
+        if (global) {
+            return () -> {
+                value.evaluate();
+                globalTags[slot] = result.getTag();
+                globalBits[slot] = result.getBits();
+                return false;
+            };
+        }
+        return () -> {
+            value.evaluate();
+            callStack.set(frameBase + slot, result.getTag(), result.getBits());
+            return false;
+        };
+    }
+
+    private CallSite compileCall(FunctionCallNode funcCallNode) {
+        List<ASTNode> argumentNodes = funcCallNode.getArguments();
+        Evaluator[] arguments = new Evaluator[argumentNodes.size()];
+        for (int i = 0; i < arguments.length; i++) {
+            arguments[i] = compileExpression(argumentNodes.get(i));
+        }
+        return new CallSite(funcCallNode.getFunctionName(), arguments);
+    }
+
+    // A compiled function call with an inline cache of the function it last resolved to. As a
+    // statement it discards what the function returns; as an expression it requires a value.
+    private class CallSite implements Executable, Evaluator {
+        private final String functionName;
+        private final Evaluator[] arguments;
+        private Function cachedFunction;
+        private int cachedVersion = -1;
+
+        CallSite(String functionName, Evaluator[] arguments) {
+            this.functionName = functionName;
+            this.arguments = arguments;
+        }
+
+        @Override
+        public boolean execute() {
+            call();
+            return false;
+        }
+
+        @Override
+        public void evaluate() {
+            call();
+            if (result.getTag() == null) {
+                throw new RuntimeException("Function " + functionName + " did not return a value");
+            }
+        }
+
+        // Runs the function and leaves its return value in the result register, with an undefined
+        // tag if it returned none
+        private void call() {
+            ProgramInterruptedException.check();
+            Function function = cachedVersion == functionTableVersion ? cachedFunction : resolve();
+
+            // Evaluate the arguments in the caller's frame, straight into the parameter slots of the new one
+            int base = callStack.push(function.frameSize);
+            int callerBase = frameBase;
+            try {
+                for (int i = 0; i < arguments.length; i++) {
+                    arguments[i].evaluate();
+                    callStack.set(base + i, result.getTag(), result.getBits());
+                }
+                frameBase = base;
+                if (!function.body.execute()) {
+                    result.set(null, 0);
+                }
+            } finally {
+                frameBase = callerBase;
+                callStack.pop(base);
+            }
+        }
+
+        private Function resolve() {
+            Function function = functionTable.get(functionName);
+            if (function == null) {
+                throw new RuntimeException("Undefined function: " + functionName);
+            }
+            if (arguments.length != function.parameterCount) {
+                throw new RuntimeException("Function " + functionName + " expects " + function.parameterCount
+                        + " arguments but got " + arguments.length);
+            }
+            cachedFunction = function;
+            cachedVersion = functionTableVersion;
+            return function;
+        }
+    }
+
+    private Evaluator compileExpression(ASTNode node) {
+        if (node instanceof VariableReferenceNode) {
+            VariableReferenceNode reference = (VariableReferenceNode) node;
+            String name = reference.getVariableName();
+            int slot = reference.getSlot();
+            if (reference.isGlobal()) {
+                return () -> {
+                    Object tag = globalTags[slot];
+                    if (tag == null) {
+                        throw new RuntimeException("Undefined variable: " + name);
+                    }
+                    result.set(tag, globalBits[slot]);
+                };
+            }
+            return () -> {
+                Object tag = callStack.getTag(frameBase + slot);
+                if (tag == null) {
+                    throw new RuntimeException("Undefined variable: " + name);
+                }
+                result.set(tag, callStack.getBits(frameBase + slot));
+            };
+        } else if (node instanceof ConstantNode) {
+            ConstantNode constant = (ConstantNode) node;
+            Object tag = constant.getTag();
+            long bits = constant.getBits();
+            return () -> result.set(tag, bits);
+        } else if (node instanceof FunctionCallNode) {
+            return compileCall((FunctionCallNode) node);
+        } else if (node instanceof ConcatNode) {
+            ConcatNode concat = (ConcatNode) node;
+            ASTNode[] partNodes = concat.getPartArray();
+            Evaluator[] parts = new Evaluator[partNodes.length];
+            for (int i = 0; i < parts.length; i++) {
+                parts[i] = compileExpression(partNodes[i]);
+            }
+            int capacity = concat.getCapacity();
+            return () -> {
+                // As in MarathiInterpreter.evaluateConcat
+                StringBuilder builder = new StringBuilder(capacity);
+                parts[0].evaluate();
+                Rope head = result.getTag() instanceof Rope ? (Rope) result.getTag() : null;
+                if (head == null) {
+                    Values.appendTo(builder, result.getTag(), result.getBits());
+                }
+                for (int i = 1; i < parts.length; i++) {
+                    parts[i].evaluate();
+                    Values.appendTo(builder, result.getTag(), result.getBits());
+                }
+                result.set(head != null ? Rope.concat(head, builder.toString()) : builder.toString(), 0);
+            };
+        } else if (node instanceof NumberNode) {
+            // Only left unparsed by the AstOptimizer when it doesn't fit in an int
+            String value = ((NumberNode) node).getValue();
+            return () -> result.setInt(Integer.parseInt(value));
+        } else if (node instanceof BinaryOperationNode) {
+            BinaryOperationNode binOp = (BinaryOperationNode) node;
+            Evaluator left = compileExpression(binOp.getLeft());
+            Evaluator right = compileExpression(binOp.getRight());
+            return () -> {
+                left.evaluate();
+                Object leftTag = result.getTag();
+                long leftBits = result.getBits();
+                right.evaluate();
+                binOp.apply(leftTag, leftBits, result.getTag(), result.getBits(), result);
+            };
+        }
+        String message = "Unknown expression type: " + node.getClass().getName();
+        return () -> {
+            throw new RuntimeException(message);
+        };
+    }
+
+    private BooleanSupplier compileCondition(ASTNode node) {
+        if (node instanceof BinaryOperationNode && ((BinaryOperationNode) node).getOperator().isComparison()) {
+            return compileComparison((BinaryOperationNode) node);
+        }
+        Evaluator expression = compileExpression(node);
+        return () -> {
+            expression.evaluate();
+            if (result.getTag() != Values.BOOL) {
+                throw new RuntimeException("Condition must be a boolean but was " + Values.typeName(result.getTag()));
+            }
+            return result.getBits() != 0;
+        };
+    }
+
+    // A comparison used as a condition is tested directly when both operands are ints, without
+    // boxing the outcome into the result register
+    private BooleanSupplier compileComparison(BinaryOperationNode binOp) {
+        Evaluator left = compileExpression(binOp.getLeft());
+        Evaluator right = compileExpression(binOp.getRight());
+        int opcode = binOp.getOpcode();
+        return () -> {
+            left.evaluate();
+            Object leftTag = result.getTag();
+            long leftBits = result.getBits();
+            right.evaluate();
+            if (leftTag == Values.INT && result.getTag() == Values.INT) {
+                return Operators.test(opcode, Integer.compare((int) leftBits, (int) result.getBits()));
+            }
+            binOp.apply(leftTag, leftBits, result.getTag(), result.getBits(), result);
+            return result.getBits() != 0;
+        };
+    }
+
+    private static Executable fail(String message) {
+        return () -> {
+            throw new RuntimeException(message);
+        };
+    }
+
+    @Override
+    public OutputSink getOutputSink() {
+        return outputSink;
+    }
+
+    @Override
+    public void setOutputSink(OutputSink outputSink) {
+        this.outputSink = outputSink;
+    }
+}
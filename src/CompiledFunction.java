@@ -0,0 +1,9 @@
+// CompiledFunction.java
+// A Karya function compiled to a JVM class by the JitCompiler
+public interface CompiledFunction {
+    // Runs the function with its arguments in the first slots of the frame at base, sending Chapa
+    // output to output and leaving the value it returned with Bolav in result, with an undefined tag
+    // if it returned none. Returns false, without running anything, if the arguments do not have the
+    // types the function was compiled for; the caller then interprets the call instead.
+    boolean invoke(CallStack stack, int base, OutputSink output, ValueRegister result);
+}
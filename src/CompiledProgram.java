@@ -0,0 +1,647 @@
+// CompiledProgram.java
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+// A program compiled ahead of time into a .mrlc file (Main --compile), so running it skips the
+// tokenizer, the parser, the AstOptimizer and the Resolver. The file holds the optimized, resolved
+// tree, exactly what an engine would have run after preparing the source itself.
+//
+// File layout, integers big-endian unless they are counts:
+//   magic "MRLC", format version, CRC32 of everything after it
+//   string table: identifiers and string literals, each written once as a length and UTF-8
+//   constant pool: each as a kind byte and its value; string constants refer to the string table
+//   source file, relative to the .mrlc file, with its size and modification time when compiled
+//   global names, in slot order
+//   the program tree, as in ProgramCodec but with slots, constants and frame sizes
+// Counts, indexes and slots are unsigned varints, like ProgramCodec's.
+//
+// The file is memory-mapped and the body of each function is only decoded when something first
+// asks for it, typically its first call, so a big program with few hot functions loads quickly.
+// Files of another format version, with a bad checksum, or older than their source are rejected.
+public final class CompiledProgram {
+    public static final String EXTENSION = ".mrlc";
+
+    private static final int FILE_MAGIC = 0x4d524c43; // "MRLC"
+    // Changes whenever the encoding or what the AstOptimizer and Resolver produce changes
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_BYTES = 12;
+
+    // Node kinds
+    private static final int NULL = 0;
+    private static final int BLOCK = 1;
+    private static final int WHILE = 2;
+    private static final int FOR = 3;
+    private static final int COUNTED_LOOP = 4;
+    private static final int IF = 5;
+    private static final int VARIABLE_DECLARATION = 6;
+    private static final int ASSIGNMENT = 7;
+    private static final int PRINT = 8;
+    private static final int RETURN = 9;
+    private static final int FUNCTION_CALL = 10;
+    private static final int FUNCTION_DECLARATION = 11;
+    private static final int BINARY_OPERATION = 12;
+    private static final int CONCAT = 13;
+    private static final int VARIABLE_REFERENCE = 14;
+    private static final int CONSTANT = 15;
+    private static final int NUMBER = 16; // An int literal too large to fold, reported when evaluated
+
+    // Constant kinds
+    private static final int INT_CONSTANT = 0;
+    private static final int DOUBLE_CONSTANT = 1;
+    private static final int BOOL_CONSTANT = 2;
+    private static final int STRING_CONSTANT = 3;
+
+    private final ASTNode program;
+    private final String[] globalNames;
+
+    private CompiledProgram(ASTNode program, String[] globalNames) {
+        this.program = program;
+        this.globalNames = globalNames;
+    }
+
+    // The optimized and resolved program, ready to run without going through the AstOptimizer
+    // and the Resolver again
+    public ASTNode getProgram() {
+        return program;
+    }
+
+    // Names of the globals the program uses, indexed by slot
+    public String[] getGlobalNames() {
+        return globalNames;
+    }
+
+    // Optimizes and resolves a program parsed from source, as an engine would, and writes it to
+    // target. Returns the size of the file written.
+    public static long compile(ASTNode parsed, Path source, Path target) throws IOException {
+        ASTNode program = new AstOptimizer().optimize(parsed);
+        Resolver resolver = new Resolver();
+        resolver.resolve(program);
+
+        Writer writer = new Writer();
+        Output tree = new Output();
+        writer.write(program, tree);
+
+        Path directory = target.toAbsolutePath().getParent();
+        Output metadata = new Output();
+        metadata.writeCount(writer.string(directory.relativize(source.toAbsolutePath()).toString()));
+        metadata.writeLong(Files.size(source));
+        metadata.writeLong(Files.getLastModifiedTime(source).toMillis());
+        String[] globalNames = resolver.getGlobalNames();
+        metadata.writeCount(globalNames.length);
+        for (String name : globalNames) {
+            metadata.writeCount(writer.string(name));
+        }
+
+        Output payload = new Output();
+        payload.writeCount(writer.strings.size());
+        for (String value : writer.strings.keySet()) {
+            byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+            payload.writeCount(utf8.length);
+            payload.write(utf8, utf8.length);
+        }
+        payload.writeCount(writer.constants.size());
+        for (ConstantNode constant : writer.constants.values()) {
+            writer.writeConstant(constant, payload);
+        }
+        payload.write(metadata.bytes, metadata.length);
+        payload.write(tree.bytes, tree.length);
+
+        CRC32 checksum = new CRC32();
+        checksum.update(payload.bytes, 0, payload.length);
+        ByteBuffer file = ByteBuffer.allocate(HEADER_BYTES + payload.length);
+        file.putInt(FILE_MAGIC).putInt(FORMAT_VERSION).putInt((int) checksum.getValue());
+        file.put(payload.bytes, 0, payload.length);
+
+        // Written next to the target and moved into place, so a reader never sees half a file
+        Files.createDirectories(directory);
+        Path temporary = Files.createTempFile(directory, target.getFileName().toString(), ".tmp");
+        try {
+            Files.write(temporary, file.array());
+            Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+        return file.capacity();
+    }
+
+    // Maps a .mrlc file and decodes everything but the function bodies. Throws IOException if it
+    // is not a valid compiled program of this version, or if its source has changed since.
+    public static CompiledProgram load(Path file) throws IOException {
+        long start = System.nanoTime();
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(file + " is too large to be a compiled program");
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        try {
+            if (buffer.remaining() < HEADER_BYTES || buffer.getInt() != FILE_MAGIC) {
+                throw new IOException("Not a compiled program");
+            }
+            int version = buffer.getInt();
+            if (version != FORMAT_VERSION) {
+                throw new IOException("Compiled for format version " + version + ", not " + FORMAT_VERSION
+                        + "; compile it again");
+            }
+            int expected = buffer.getInt();
+            CRC32 checksum = new CRC32();
+            checksum.update(buffer.duplicate());
+            if ((int) checksum.getValue() != expected) {
+                throw new IOException("Checksum mismatch, the file is corrupt");
+            }
+
+            Image image = new Image(buffer);
+            Decoder decoder = new Decoder(image, buffer, -1);
+
+            Path source = file.toAbsolutePath().getParent().resolve(decoder.readString());
+            long sourceSize = buffer.getLong();
+            long sourceModified = buffer.getLong();
+            if (Files.isRegularFile(source) && (Files.size(source) != sourceSize
+                    || Files.getLastModifiedTime(source).toMillis() != sourceModified)) {
+                throw new IOException(source + " has changed since it was compiled; compile it again");
+            }
+
+            String[] globalNames = new String[decoder.readCount()];
+            for (int i = 0; i < globalNames.length; i++) {
+                globalNames[i] = decoder.readString();
+            }
+            image.globalCount = globalNames.length;
+
+            ASTNode program = decoder.read();
+            if (buffer.hasRemaining()) {
+                throw new IOException("Unexpected data after the program");
+            }
+            Trace.log(Trace.Category.PARSER, Trace.Level.INFO, () -> String.format("Loaded %s in %.1f ms",
+                    file, (System.nanoTime() - start) / 1e6));
+            return new CompiledProgram(program, globalNames);
+        } catch (IOException | BufferUnderflowException e) {
+            String reason = e instanceof BufferUnderflowException ? "Truncated" : e.getMessage();
+            throw new IOException("Cannot load " + file + ": " + reason, e);
+        }
+    }
+
+    // Growable byte array with the encodings the file uses
+    private static final class Output {
+        byte[] bytes = new byte[4096];
+        int length;
+
+        void writeByte(int value) {
+            if (length == bytes.length) {
+                bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            }
+            bytes[length++] = (byte) value;
+        }
+
+        void writeCount(int count) {
+            while ((count & ~0x7f) != 0) {
+                writeByte((count & 0x7f) | 0x80);
+                count >>>= 7;
+            }
+            writeByte(count);
+        }
+
+        void writeInt(int value) {
+            for (int shift = 24; shift >= 0; shift -= 8) {
+                writeByte(value >>> shift);
+            }
+        }
+
+        void writeLong(long value) {
+            writeInt((int) (value >>> 32));
+            writeInt((int) value);
+        }
+
+        void write(byte[] data, int count) {
+            if (length + count > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + count));
+            }
+            System.arraycopy(data, 0, bytes, length, count);
+            length += count;
+        }
+    }
+
+    private static final class Writer {
+        // Insertion-ordered, so the tables are written in index order
+        final Map<String, Integer> strings = new LinkedHashMap<>();
+        final Map<Object, ConstantNode> constants = new LinkedHashMap<>();
+        final Map<Object, Integer> constantIndexes = new HashMap<>();
+
+        int string(String value) {
+            Integer index = strings.get(value);
+            if (index == null) {
+                index = strings.size();
+                strings.put(value, index);
+            }
+            return index;
+        }
+
+        // Equal constants share an entry. Keys differ in class by kind: Integer for ints, Long
+        // holding the bits for doubles, Boolean and String.
+        int constant(ConstantNode constant) {
+            Object tag = constant.getTag();
+            Object key;
+            if (tag == Values.INT) {
+                key = (int) constant.getBits();
+            } else if (tag == Values.DOUBLE) {
+                key = constant.getBits();
+            } else if (tag == Values.BOOL) {
+                key = constant.getBits() != 0;
+            } else if (tag instanceof CharSequence) {
+                key = tag.toString();
+                string((String) key);
+            } else {
+                throw new IllegalArgumentException("Cannot compile constant " + constant);
+            }
+            Integer index = constantIndexes.get(key);
+            if (index == null) {
+                index = constants.size();
+                constantIndexes.put(key, index);
+                constants.put(key, constant);
+            }
+            return index;
+        }
+
+        void writeConstant(ConstantNode constant, Output out) {
+            Object tag = constant.getTag();
+            if (tag == Values.INT) {
+                out.writeByte(INT_CONSTANT);
+                out.writeInt((int) constant.getBits());
+            } else if (tag == Values.DOUBLE) {
+                out.writeByte(DOUBLE_CONSTANT);
+                out.writeLong(constant.getBits());
+            } else if (tag == Values.BOOL) {
+                out.writeByte(BOOL_CONSTANT);
+                out.writeByte(constant.getBits() != 0 ? 1 : 0);
+            } else {
+                out.writeByte(STRING_CONSTANT);
+                out.writeCount(string(tag.toString()));
+            }
+        }
+
+        void write(ASTNode node, Output out) {
+            if (node == null) {
+                out.writeByte(NULL);
+            } else if (node instanceof BlockNode) {
+                List<ASTNode> statements = ((BlockNode) node).getStatements();
+                out.writeByte(BLOCK);
+                out.writeCount(statements.size());
+                for (ASTNode statement : statements) {
+                    write(statement, out);
+                }
+            } else if (node instanceof WhileStatementNode) {
+                WhileStatementNode whileStmtNode = (WhileStatementNode) node;
+                out.writeByte(WHILE);
+                write(whileStmtNode.getCondition(), out);
+                write(whileStmtNode.getBody(), out);
+            } else if (node instanceof ForStatementNode) {
+                // A CountedLoopNode is rebuilt from its condition and increment, like the optimizer does
+                ForStatementNode forStmtNode = (ForStatementNode) node;
+                out.writeByte(node instanceof CountedLoopNode ? COUNTED_LOOP : FOR);
+                write(forStmtNode.getInitialization(), out);
+                write(forStmtNode.getCondition(), out);
+                write(forStmtNode.getIncrement(), out);
+                write(forStmtNode.getBody(), out);
+            } else if (node instanceof IfStatementNode) {
+                IfStatementNode ifStmtNode = (IfStatementNode) node;
+                out.writeByte(IF);
+                write(ifStmtNode.getCondition(), out);
+                write(ifStmtNode.getThenBranch(), out);
+                write(ifStmtNode.getElseBranch(), out);
+            } else if (node instanceof VariableDeclarationNode) {
+                VariableDeclarationNode varDeclNode = (VariableDeclarationNode) node;
+                out.writeByte(VARIABLE_DECLARATION);
+                writeVariable(varDeclNode.getVariableName(), varDeclNode.getSlot(), varDeclNode.isGlobal(), out);
+                write(varDeclNode.getValue(), out);
+            } else if (node instanceof AssignmentNode) {
+                AssignmentNode assignmentNode = (AssignmentNode) node;
+                out.writeByte(ASSIGNMENT);
+                writeVariable(assignmentNode.getVariableName(), assignmentNode.getSlot(), assignmentNode.isGlobal(),
+                        out);
+                write(assignmentNode.getValue(), out);
+            } else if (node instanceof PrintStatementNode) {
+                out.writeByte(PRINT);
+                write(((PrintStatementNode) node).getExpression(), out);
+            } else if (node instanceof ReturnStatementNode) {
+                out.writeByte(RETURN);
+                write(((ReturnStatementNode) node).getExpression(), out);
+            } else if (node instanceof FunctionCallNode) {
+                FunctionCallNode funcCallNode = (FunctionCallNode) node;
+                out.writeByte(FUNCTION_CALL);
+                out.writeCount(string(funcCallNode.getFunctionName()));
+                out.writeCount(funcCallNode.getArgumentArray().length);
+                for (ASTNode argument : funcCallNode.getArgumentArray()) {
+                    write(argument, out);
+                }
+            } else if (node instanceof FunctionDeclarationNode) {
+                // The body is preceded by its length, so a reader can skip it until it is needed
+                FunctionDeclarationNode funcDeclNode = (FunctionDeclarationNode) node;
+                out.writeByte(FUNCTION_DECLARATION);
+                out.writeCount(string(funcDeclNode.getFunctionName()));
+                out.writeCount(funcDeclNode.getParameterCount());
+                for (String parameter : funcDeclNode.getParameters()) {
+                    out.writeCount(string(parameter));
+                }
+                out.writeCount(funcDeclNode.getFrameSize());
+                int lengthAt = out.length;
+                out.writeInt(0);
+                write(funcDeclNode.getBody(), out);
+                int bodyLength = out.length - lengthAt - 4;
+                for (int i = 0; i < 4; i++) {
+                    out.bytes[lengthAt + i] = (byte) (bodyLength >>> (24 - 8 * i));
+                }
+            } else if (node instanceof BinaryOperationNode) {
+                BinaryOperationNode binOp = (BinaryOperationNode) node;
+                out.writeByte(BINARY_OPERATION);
+                out.writeByte(binOp.getOperator().ordinal());
+                write(binOp.getLeft(), out);
+                write(binOp.getRight(), out);
+            } else if (node instanceof ConcatNode) {
+                ASTNode[] parts = ((ConcatNode) node).getPartArray();
+                out.writeByte(CONCAT);
+                out.writeCount(parts.length);
+                for (ASTNode part : parts) {
+                    write(part, out);
+                }
+            } else if (node instanceof VariableReferenceNode) {
+                VariableReferenceNode reference = (VariableReferenceNode) node;
+                out.writeByte(VARIABLE_REFERENCE);
+                writeVariable(reference.getVariableName(), reference.getSlot(), reference.isGlobal(), out);
+            } else if (node instanceof ConstantNode) {
+                out.writeByte(CONSTANT);
+                out.writeCount(constant((ConstantNode) node));
+            } else if (node instanceof NumberNode) {
+                out.writeByte(NUMBER);
+                out.writeCount(string(((NumberNode) node).getValue()));
+            } else {
+                // Float and string literals are always turned into constants by the optimizer
+                throw new IllegalArgumentException("Cannot compile " + node.getClass().getName());
+            }
+        }
+
+        // The slot and whether it is global share one varint
+        private void writeVariable(String name, int slot, boolean global, Output out) {
+            out.writeCount(string(name));
+            out.writeCount(slot << 1 | (global ? 1 : 0));
+        }
+    }
+
+    // The tables of a mapped file, shared by everything decoded from it
+    private static final class Image {
+        final ByteBuffer buffer;
+        final String[] strings;
+        final ConstantNode[] constants;
+        int globalCount;
+
+        // Reads the string table and the constant pool, leaving buffer just past them
+        Image(ByteBuffer buffer) throws IOException {
+            this.buffer = buffer;
+            Decoder decoder = new Decoder(this, buffer, -1);
+
+            strings = new String[decoder.readCount()];
+            byte[] utf8 = new byte[64];
+            for (int i = 0; i < strings.length; i++) {
+                int length = decoder.readCount();
+                if (length > buffer.remaining()) {
+                    throw new IOException("Truncated string table");
+                }
+                if (length > utf8.length) {
+                    utf8 = new byte[Math.max(length, utf8.length * 2)];
+                }
+                buffer.get(utf8, 0, length);
+                strings[i] = new String(utf8, 0, length, StandardCharsets.UTF_8);
+            }
+
+            constants = new ConstantNode[decoder.readCount()];
+            for (int i = 0; i < constants.length; i++) {
+                int kind = buffer.get();
+                switch (kind) {
+                    case INT_CONSTANT:
+                        constants[i] = new ConstantNode(Values.INT, buffer.getInt());
+                        break;
+                    case DOUBLE_CONSTANT:
+                        constants[i] = new ConstantNode(Values.DOUBLE, buffer.getLong());
+                        break;
+                    case BOOL_CONSTANT:
+                        constants[i] = new ConstantNode(Values.BOOL, buffer.get() != 0 ? 1 : 0);
+                        break;
+                    case STRING_CONSTANT:
+                        constants[i] = new ConstantNode(decoder.readString(), 0);
+                        break;
+                    default:
+                        throw new IOException("Unknown constant kind " + kind);
+                }
+            }
+        }
+    }
+
+    // A function whose body is decoded from the file the first time it is asked for. That can be
+    // from the JitCompiler's thread as well as the interpreter's, so the body is published safely.
+    private static final class LazyFunctionDeclarationNode extends FunctionDeclarationNode {
+        private final Image image;
+        private final int bodyOffset;
+        private volatile ASTNode loadedBody;
+
+        LazyFunctionDeclarationNode(String functionName, List<String> parameters, int frameSize, Image image,
+                int bodyOffset) {
+            super(functionName, parameters, null);
+            setFrameSize(frameSize);
+            this.image = image;
+            this.bodyOffset = bodyOffset;
+        }
+
+        @Override
+        public ASTNode getBody() {
+            ASTNode loaded = loadedBody;
+            if (loaded == null) {
+                loaded = load();
+            }
+            return loaded;
+        }
+
+        private synchronized ASTNode load() {
+            if (loadedBody == null) {
+                ByteBuffer buffer = image.buffer.duplicate();
+                buffer.position(bodyOffset);
+                try {
+                    loadedBody = new Decoder(image, buffer, getFrameSize()).read();
+                } catch (IOException | BufferUnderflowException e) {
+                    // Only possible if the file changed after it was checked
+                    throw new RuntimeException("Corrupt compiled function " + getFunctionName() + ": " + e);
+                }
+            }
+            return loadedBody;
+        }
+    }
+
+    private static final class Decoder {
+        private final Image image;
+        private final ByteBuffer in;
+        private final int frameSize; // Of the function being decoded, or -1 in top-level code
+
+        Decoder(Image image, ByteBuffer in, int frameSize) {
+            this.image = image;
+            this.in = in;
+            this.frameSize = frameSize;
+        }
+
+        ASTNode read() throws IOException {
+            int kind = in.get() & 0xff;
+            switch (kind) {
+                case NULL:
+                    return null;
+                case BLOCK: {
+                    int count = readCount();
+                    List<ASTNode> statements = new ArrayList<>(Math.min(count, in.remaining()));
+                    for (int i = 0; i < count; i++) {
+                        statements.add(read());
+                    }
+                    return new BlockNode(statements);
+                }
+                case WHILE:
+                    return new WhileStatementNode(read(), read());
+                case FOR:
+                    return new ForStatementNode(read(), read(), read(), read());
+                case COUNTED_LOOP: {
+                    ASTNode initialization = read();
+                    ASTNode condition = read();
+                    ASTNode increment = read();
+                    if (!(condition instanceof BinaryOperationNode)
+                            || !(((BinaryOperationNode) condition).getLeft() instanceof VariableReferenceNode)
+                            || !(increment instanceof AssignmentNode)) {
+                        throw new IOException("Malformed counted loop");
+                    }
+                    return new CountedLoopNode(initialization, (BinaryOperationNode) condition,
+                            (AssignmentNode) increment, read());
+                }
+                case IF:
+                    return new IfStatementNode(read(), read(), read());
+                case VARIABLE_DECLARATION: {
+                    String name = readString();
+                    int slot = readSlot();
+                    VariableDeclarationNode varDeclNode = new VariableDeclarationNode(name, read());
+                    varDeclNode.setSlot(slot >> 1, (slot & 1) != 0);
+                    return varDeclNode;
+                }
+                case ASSIGNMENT: {
+                    String name = readString();
+                    int slot = readSlot();
+                    AssignmentNode assignmentNode = new AssignmentNode(name, read());
+                    assignmentNode.setSlot(slot >> 1, (slot & 1) != 0);
+                    return assignmentNode;
+                }
+                case PRINT:
+                    return new PrintStatementNode(read());
+                case RETURN:
+                    return new ReturnStatementNode(read());
+                case FUNCTION_CALL: {
+                    String functionName = readString();
+                    int count = readCount();
+                    List<ASTNode> arguments = new ArrayList<>(Math.min(count, in.remaining()));
+                    for (int i = 0; i < count; i++) {
+                        arguments.add(read());
+                    }
+                    return new FunctionCallNode(functionName, arguments);
+                }
+                case FUNCTION_DECLARATION: {
+                    String functionName = readString();
+                    int count = readCount();
+                    List<String> parameters = new ArrayList<>(Math.min(count, in.remaining()));
+                    for (int i = 0; i < count; i++) {
+                        parameters.add(readString());
+                    }
+                    int declaredFrameSize = readCount();
+                    int bodyLength = in.getInt();
+                    if (declaredFrameSize < count || bodyLength < 0 || bodyLength > in.remaining()) {
+                        throw new IOException("Malformed function " + functionName);
+                    }
+                    int bodyOffset = in.position();
+                    in.position(bodyOffset + bodyLength);
+                    return new LazyFunctionDeclarationNode(functionName, parameters, declaredFrameSize, image,
+                            bodyOffset);
+                }
+                case BINARY_OPERATION: {
+                    int operator = in.get() & 0xff;
+                    if (operator >= Operator.values().length) {
+                        throw new IOException("Unknown operator " + operator);
+                    }
+                    return new BinaryOperationNode(read(), Operator.values()[operator], read());
+                }
+                case CONCAT: {
+                    int count = readCount();
+                    List<ASTNode> parts = new ArrayList<>(Math.min(count, in.remaining()));
+                    for (int i = 0; i < count; i++) {
+                        parts.add(read());
+                    }
+                    return new ConcatNode(parts);
+                }
+                case VARIABLE_REFERENCE: {
+                    VariableReferenceNode reference = new VariableReferenceNode(readString());
+                    int slot = readSlot();
+                    reference.setSlot(slot >> 1, (slot & 1) != 0);
+                    return reference;
+                }
+                case CONSTANT: {
+                    int index = readCount();
+                    if (index >= image.constants.length) {
+                        throw new IOException("Unknown constant " + index);
+                    }
+                    // Shared nodes are fine: nothing writes to a ConstantNode
+                    return image.constants[index];
+                }
+                case NUMBER:
+                    return new NumberNode(readString());
+                default:
+                    throw new IOException("Unknown node kind " + kind);
+            }
+        }
+
+        // Reads a slot and global flag, checking the slot exists, since engines index arrays with it
+        private int readSlot() throws IOException {
+            int slot = readCount();
+            boolean global = (slot & 1) != 0;
+            if (global ? slot >> 1 >= image.globalCount : slot >> 1 >= frameSize) {
+                throw new IOException("Slot " + (slot >> 1) + " out of range");
+            }
+            return slot;
+        }
+
+        int readCount() throws IOException {
+            int count = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                int b = in.get();
+                count |= (b & 0x7f) << shift;
+                if (b >= 0) {
+                    if (count < 0) {
+                        break;
+                    }
+                    return count;
+                }
+            }
+            throw new IOException("Malformed count");
+        }
+
+        String readString() throws IOException {
+            int index = readCount();
+            if (index >= image.strings.length) {
+                throw new IOException("Unknown string " + index);
+            }
+            return image.strings[index];
+        }
+    }
+}
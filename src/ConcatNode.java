@@ -0,0 +1,43 @@
+// ConcatNode.java
+import java.util.Arrays;
+import java.util.List;
+
+// A chain of + operations that the AstOptimizer has proven to be string concatenation, such as
+// "Hello " + name + ", you are " + age. The parts are joined in a single pass through a StringBuilder
+// sized for the result, instead of one intermediate string per +.
+public class ConcatNode implements ASTNode {
+    // Room assumed for each part that isn't a constant
+    private static final int DYNAMIC_PART_LENGTH = 16;
+
+    private ASTNode[] parts;
+    private int capacity; // Initial StringBuilder capacity
+
+    public ConcatNode(List<ASTNode> parts) {
+        this.parts = parts.toArray(new ASTNode[0]);
+        for (ASTNode part : this.parts) {
+            if (part instanceof ConstantNode) {
+                ConstantNode constant = (ConstantNode) part;
+                capacity += Values.toString(constant.getTag(), constant.getBits()).length();
+            } else {
+                capacity += DYNAMIC_PART_LENGTH;
+            }
+        }
+    }
+
+    public List<ASTNode> getParts() {
+        return Arrays.asList(parts);
+    }
+
+    public ASTNode[] getPartArray() {
+        return parts;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    @Override
+    public String toString() {
+        return "ConcatNode{" + "parts=" + Arrays.toString(parts) + '}';
+    }
+}
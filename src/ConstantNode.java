@@ -0,0 +1,28 @@
+// ConstantNode.java
+// A literal or folded constant whose value was computed once by the AstOptimizer
+public class ConstantNode implements ASTNode {
+    private Object tag;
+    private long bits;
+
+    public ConstantNode(Object tag, long bits) {
+        this.tag = tag;
+        this.bits = bits;
+    }
+
+    public Object getTag() {
+        return tag;
+    }
+
+    public long getBits() {
+        return bits;
+    }
+
+    public boolean isString() {
+        return tag instanceof String;
+    }
+
+    @Override
+    public String toString() {
+        return "ConstantNode{" + "value='" + Values.toString(tag, bits) + '\'' + '}';
+    }
+}
@@ -0,0 +1,38 @@
+// CountedLoopNode.java
+
+// A loop the AstOptimizer recognized as counting an int variable up by one to a bound that does not
+// change inside the loop: Suruwaat (i = 0; i < n; i = i + 1) or a joparyant loop whose body ends with
+// i = i + 1. Engines that know it keep the counter in a Java int; the rest run it as the
+// ForStatementNode it still is.
+public class CountedLoopNode extends ForStatementNode {
+    private VariableReferenceNode counter;
+    private ASTNode bound;
+    private boolean inclusive; // <= rather than <
+
+    public CountedLoopNode(ASTNode initialization, BinaryOperationNode condition, AssignmentNode increment,
+            ASTNode body) {
+        super(initialization, condition, increment, body);
+        this.counter = (VariableReferenceNode) condition.getLeft();
+        this.bound = condition.getRight();
+        this.inclusive = condition.getOperator() == Operator.LE;
+    }
+
+    // The counter as it appears in the condition, which carries its slot
+    public VariableReferenceNode getCounter() {
+        return counter;
+    }
+
+    public ASTNode getBound() {
+        return bound;
+    }
+
+    public boolean isInclusive() {
+        return inclusive;
+    }
+
+    @Override
+    public String toString() {
+        return "CountedLoopNode{counter=" + counter + ", bound=" + bound + ", inclusive=" + inclusive + ", body="
+                + getBody() + "}";
+    }
+}
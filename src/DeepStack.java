@@ -0,0 +1,113 @@
+// DeepStack.java
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Runs the tree-walking engines on a thread with a large stack. They recurse in Java for every
+// nested statement, expression and Marathi function call, so a program recursing a hundred thousand
+// calls deep needs far more stack than a default thread has. The stack is reserved, not committed:
+// only as much of it is touched as the program actually uses.
+//
+// The threads are pooled, so running one program after another, as the editor does, doesn't start
+// a thread for each. A thread idle for a minute is let go. Code that runs many small pieces, such as
+// streamed top-level statements, should enter DeepStack once around all of them: each run from
+// outside still hands the task to another thread and waits for it.
+public final class DeepStack {
+    private static final long STACK_SIZE = 1L << 30;
+
+    private static final ExecutorService WORKERS = Executors.newCachedThreadPool(Worker::new);
+
+    private DeepStack() {
+    }
+
+    // The threads DeepStack runs code on; code already running on one is run directly
+    private static class Worker extends Thread {
+        Worker(Runnable runnable) {
+            super(null, runnable, "marathi-interpreter", STACK_SIZE);
+            setDaemon(true);
+        }
+    }
+
+    // One call to run, and the worker running it while it runs
+    private static class Task implements Runnable {
+        private final Runnable task;
+        private Thread worker;
+        private boolean interrupted;
+        private boolean done;
+        private Throwable failure;
+
+        Task(Runnable task) {
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            synchronized (this) {
+                worker = Thread.currentThread();
+                if (interrupted) {
+                    worker.interrupt();
+                }
+            }
+            try {
+                task.run();
+            } catch (StackOverflowError e) {
+                failure = new RuntimeException("Stack overflow: recursion is too deep");
+            } catch (Throwable e) {
+                failure = e;
+            } finally {
+                synchronized (this) {
+                    worker = null;
+                    Thread.interrupted(); // An interrupt meant for this task must not reach the next one
+                    done = true;
+                    notifyAll();
+                }
+            }
+        }
+
+        synchronized void interrupt() {
+            interrupted = true;
+            if (worker != null) {
+                worker.interrupt();
+            }
+        }
+
+        synchronized void await() throws InterruptedException {
+            while (!done) {
+                wait();
+            }
+        }
+    }
+
+    // Runs task to completion on a deep-stack thread and rethrows whatever it threw. Interrupting
+    // the calling thread interrupts the task.
+    public static void run(Runnable task) {
+        if (Thread.currentThread() instanceof Worker) {
+            task.run();
+            return;
+        }
+
+        Task running = new Task(task);
+        WORKERS.execute(running);
+        boolean interrupted = false;
+        while (true) {
+            try {
+                running.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+                running.interrupt();
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        Throwable failure = running.failure;
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        } else if (failure instanceof Error) {
+            throw (Error) failure;
+        } else if (failure != null) {
+            throw new RuntimeException(failure);
+        }
+    }
+}
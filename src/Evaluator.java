@@ -0,0 +1,6 @@
+// Evaluator.java
+// An expression compiled by the ClosureInterpreter. Leaves its value in the interpreter's result
+// register as a tag plus primitive bits (see Values).
+public interface Evaluator {
+    void evaluate();
+}
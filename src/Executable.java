@@ -0,0 +1,6 @@
+// Executable.java
+// A statement compiled by the ClosureInterpreter, already bound to its children
+public interface Executable {
+    // Returns true if the statement ran a Bolav, with the returned value left in the result register
+    boolean execute();
+}
@@ -2,10 +2,17 @@ import java.util.List;
 public class FunctionCallNode implements ASTNode {
     private String functionName;
     private List<ASTNode> arguments;
+    private ASTNode[] argumentArray; // The arguments, for indexing without going through the List
+
+    // Inline cache: the declaration this call last resolved to, valid while the interpreter's
+    // function table is still at cachedVersion
+    private FunctionDeclarationNode cachedFunction;
+    private int cachedVersion = -1;
 
     public FunctionCallNode(String functionName, List<ASTNode> arguments) {
         this.functionName = functionName;
         this.arguments = arguments;
+        this.argumentArray = arguments.toArray(new ASTNode[0]);
     }
 
     public String getFunctionName() {
@@ -16,6 +23,20 @@ public class FunctionCallNode implements ASTNode {
         return arguments;
     }
 
+    public ASTNode[] getArgumentArray() {
+        return argumentArray;
+    }
+
+    // Returns the cached declaration if it was resolved at the given function table version, else null
+    public FunctionDeclarationNode getCachedFunction(int version) {
+        return version == cachedVersion ? cachedFunction : null;
+    }
+
+    public void cacheFunction(FunctionDeclarationNode function, int version) {
+        cachedFunction = function;
+        cachedVersion = version;
+    }
+
     @Override
     public String toString() {
         return "FunctionCallNode{" +
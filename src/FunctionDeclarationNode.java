@@ -4,11 +4,22 @@ public class FunctionDeclarationNode implements ASTNode {
     private String functionName;
     private List<String> parameters;
     private ASTNode body;
+    private int parameterCount;
+    private int frameSize; // Parameters and locals, as counted by the Resolver
+
+    // Just-in-time compilation state, see JitCompiler. The compiled function is published by the
+    // compiler thread.
+    private int callCount;
+    private volatile CompiledFunction compiledFunction;
+
+    // Results by argument values, set by the interpreter while memoization is on and the function is pure
+    private MemoCache memoCache;
 
     public FunctionDeclarationNode(String functionName, List<String> parameters, ASTNode body) {
         this.functionName = functionName;
         this.parameters = parameters;
         this.body = body;
+        this.parameterCount = parameters.size();
     }
 
     public String getFunctionName() {
@@ -19,12 +30,45 @@ public class FunctionDeclarationNode implements ASTNode {
         return parameters;
     }
 
+    public int getParameterCount() {
+        return parameterCount;
+    }
+
     public ASTNode getBody() {
         return body;
     }
 
+    public int getFrameSize() {
+        return frameSize;
+    }
+
+    public void setFrameSize(int frameSize) {
+        this.frameSize = frameSize;
+    }
+
+    // Counts a call and returns the new total
+    public int countCall() {
+        return ++callCount;
+    }
+
+    public CompiledFunction getCompiledFunction() {
+        return compiledFunction;
+    }
+
+    public void setCompiledFunction(CompiledFunction compiledFunction) {
+        this.compiledFunction = compiledFunction;
+    }
+
+    public MemoCache getMemoCache() {
+        return memoCache;
+    }
+
+    public void setMemoCache(MemoCache memoCache) {
+        this.memoCache = memoCache;
+    }
+
     @Override
     public String toString() {
-        return "FunctionDeclarationNode{" + "functionName='" + functionName + '\'' + ", parameters=" + parameters + ", body=" + body + '}';
+        return "FunctionDeclarationNode{" + "functionName='" + functionName + '\'' + ", parameters=" + parameters + ", body=" + getBody() + '}';
     }
 }
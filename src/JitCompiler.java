@@ -0,0 +1,506 @@
+// JitCompiler.java
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+// Compiles hot Karya functions into JVM classes so HotSpot can optimize them like ordinary Java.
+//
+// A function is translated into Java source specialized for the argument types seen when it became
+// hot, compiled in memory with the system Java compiler and loaded as a hidden class. Bolav becomes a
+// Java return that leaves its value in the caller's result register. Only functions that work purely
+// on their own parameters and locals, with a single type per variable, are compiled: a function that
+// reads or writes a global, calls a function (itself included) or loops on a constant condition makes
+// compile() return null and stays interpreted. The compiler is the JDK's, so on a plain JRE nothing
+// is compiled at all.
+//
+// Compiling takes far longer than interpreting a few more calls, so compileInBackground() runs it on
+// a daemon thread and the interpreter keeps going until the compiled function is published.
+public class JitCompiler {
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+    private static final String INT = "int";
+    private static final String DOUBLE = "double";
+    private static final String BOOLEAN = "boolean";
+    private static final String STRING = "String";
+
+    private JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+    private int classCount;
+
+    // Single compiler thread, so requests are compiled one at a time in the order they were made
+    private ExecutorService compileThread;
+
+    // Types of the frame slots of the function being compiled
+    private String[] slotTypes;
+    private StringBuilder source;
+
+    // Thrown while translating a function that cannot be compiled
+    private static class UnsupportedException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        UnsupportedException(String reason) {
+            super(reason, null, false, false);
+        }
+    }
+
+    // Whether a system Java compiler is available (it is not on a plain JRE)
+    public boolean isAvailable() {
+        return javac != null;
+    }
+
+    // Queues funcDecl to be compiled for arguments with the given tags and, if that succeeds, sets
+    // its compiled function. Until then, and forever if it can't be compiled, calls are interpreted.
+    public synchronized void compileInBackground(FunctionDeclarationNode funcDecl, Object[] argumentTags) {
+        if (javac == null) {
+            return;
+        }
+        if (compileThread == null) {
+            compileThread = Executors.newSingleThreadExecutor(task -> {
+                Thread thread = new Thread(task, "marathi-jit");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        compileThread.execute(() -> {
+            CompiledFunction compiled = compile(funcDecl, argumentTags);
+            if (compiled != null) {
+                funcDecl.setCompiledFunction(compiled);
+            }
+        });
+    }
+
+    // Compiles funcDecl for arguments with the given tags (see Values), or returns null if it can't
+    public synchronized CompiledFunction compile(FunctionDeclarationNode funcDecl, Object[] argumentTags) {
+        if (javac == null) {
+            return null;
+        }
+        try {
+            String className = "MarathiJit" + (classCount++) + "_" + sanitize(funcDecl.getFunctionName());
+            String javaSource = translate(funcDecl, argumentTags, className);
+            Trace.log(Trace.Category.JIT, Trace.Level.TRACE, () -> javaSource);
+            byte[] classBytes = compileSource(className, javaSource);
+            if (classBytes == null) {
+                Trace.log(Trace.Category.JIT, Trace.Level.INFO,
+                        () -> "javac rejected the code for " + funcDecl.getFunctionName());
+                return null;
+            }
+            MethodHandles.Lookup hidden = LOOKUP.defineHiddenClass(classBytes, true);
+            CompiledFunction compiled = (CompiledFunction) hidden
+                    .findConstructor(hidden.lookupClass(), MethodType.methodType(void.class)).invoke();
+            Trace.log(Trace.Category.JIT, Trace.Level.INFO, () -> "Compiled " + funcDecl.getFunctionName());
+            return compiled;
+        } catch (UnsupportedException e) {
+            Trace.log(Trace.Category.JIT, Trace.Level.INFO,
+                    () -> "Not compiling " + funcDecl.getFunctionName() + ": " + e.getMessage());
+            return null;
+        } catch (Throwable e) {
+            Trace.log(Trace.Category.JIT, Trace.Level.INFO,
+                    () -> "Failed to compile " + funcDecl.getFunctionName() + ": " + e);
+            return null; // Any failure just leaves the function interpreted
+        }
+    }
+
+    private String translate(FunctionDeclarationNode funcDecl, Object[] argumentTags, String className)
+            throws UnsupportedException {
+        List<String> parameters = funcDecl.getParameters();
+        slotTypes = new String[funcDecl.getFrameSize()];
+        for (int i = 0; i < parameters.size(); i++) {
+            slotTypes[i] = typeOf(argumentTags[i]);
+        }
+        inferTypes(funcDecl.getBody(), true);
+
+        source = new StringBuilder();
+        source.append("public final class ").append(className).append(" implements CompiledFunction {\n");
+        source.append("    public boolean invoke(CallStack stack, int base, OutputSink output, ValueRegister result) {\n");
+
+        // Guard on the argument types, then unpack them into Java locals
+        for (int i = 0; i < parameters.size(); i++) {
+            String tag = "stack.getTag(base + " + i + ")";
+            String bits = "stack.getBits(base + " + i + ")";
+            switch (slotTypes[i]) {
+                case INT:
+                    source.append("        if (").append(tag).append(" != Values.INT) return false;\n");
+                    source.append("        int v").append(i).append(" = (int) ").append(bits).append(";\n");
+                    break;
+                case DOUBLE:
+                    source.append("        if (").append(tag).append(" != Values.DOUBLE) return false;\n");
+                    source.append("        double v").append(i).append(" = Double.longBitsToDouble(").append(bits)
+                            .append(");\n");
+                    break;
+                case BOOLEAN:
+                    source.append("        if (").append(tag).append(" != Values.BOOL) return false;\n");
+                    source.append("        boolean v").append(i).append(" = ").append(bits).append(" != 0;\n");
+                    break;
+                default:
+                    source.append("        if (!(").append(tag).append(" instanceof CharSequence)) return false;\n");
+                    source.append("        String v").append(i).append(" = ").append(tag).append(".toString();\n");
+                    break;
+            }
+        }
+        for (int i = parameters.size(); i < slotTypes.length; i++) {
+            String type = slotTypes[i] != null ? slotTypes[i] : INT; // Never used if never typed
+            String initial = type.equals(STRING) ? "null" : type.equals(BOOLEAN) ? "false" : "0";
+            source.append("        ").append(type).append(" v").append(i).append(" = ").append(initial).append(";\n");
+        }
+
+        if (translateStatement(funcDecl.getBody(), "        ")) {
+            source.append("        result.set(null, 0);\n"); // Ran off the end without a Bolav
+            source.append("        return true;\n");
+        }
+        source.append("    }\n}\n");
+        return source.toString();
+    }
+
+    // Gives every local a single static type. Locals must be assigned at the top level of the body
+    // before they are first read, so the compiled code never reads an undefined variable. The
+    // AstOptimizer's temporaries are the exception: they are assigned once, just before the only loop
+    // that reads them.
+    private void inferTypes(ASTNode node, boolean topLevel) throws UnsupportedException {
+        if (node == null) {
+            return;
+        }
+        if (node instanceof BlockNode) {
+            for (ASTNode statement : ((BlockNode) node).getStatements()) {
+                inferTypes(statement, topLevel);
+            }
+        } else if (node instanceof VariableDeclarationNode || node instanceof AssignmentNode) {
+            String name;
+            ASTNode value;
+            int slot;
+            boolean global;
+            if (node instanceof VariableDeclarationNode) {
+                VariableDeclarationNode varDeclNode = (VariableDeclarationNode) node;
+                name = varDeclNode.getVariableName();
+                value = varDeclNode.getValue();
+                slot = varDeclNode.getSlot();
+                global = varDeclNode.isGlobal();
+            } else {
+                AssignmentNode assignmentNode = (AssignmentNode) node;
+                name = assignmentNode.getVariableName();
+                value = assignmentNode.getValue();
+                slot = assignmentNode.getSlot();
+                global = assignmentNode.isGlobal();
+            }
+            if (global) {
+                throw new UnsupportedException("writes a global");
+            }
+            String type = typeOfExpression(value);
+            if (slotTypes[slot] == null) {
+                if (!topLevel && !AstOptimizer.isTemporary(name)) {
+                    throw new UnsupportedException("local first assigned inside a branch or loop");
+                }
+                slotTypes[slot] = type;
+            } else if (!slotTypes[slot].equals(type)) {
+                throw new UnsupportedException("local changes type");
+            }
+        } else if (node instanceof WhileStatementNode) {
+            WhileStatementNode whileStmtNode = (WhileStatementNode) node;
+            requireLoopCondition(whileStmtNode.getCondition());
+            inferTypes(whileStmtNode.getBody(), false);
+        } else if (node instanceof ForStatementNode) {
+            ForStatementNode forStmtNode = (ForStatementNode) node;
+            inferTypes(forStmtNode.getInitialization(), topLevel);
+            requireLoopCondition(forStmtNode.getCondition());
+            inferTypes(forStmtNode.getBody(), false);
+            inferTypes(forStmtNode.getIncrement(), false);
+        } else if (node instanceof IfStatementNode) {
+            IfStatementNode ifStmtNode = (IfStatementNode) node;
+            requireBoolean(ifStmtNode.getCondition());
+            inferTypes(ifStmtNode.getThenBranch(), false);
+            if (ifStmtNode.getElseBranch() != null) {
+                inferTypes(ifStmtNode.getElseBranch(), false);
+            }
+        } else if (node instanceof PrintStatementNode) {
+            typeOfExpression(((PrintStatementNode) node).getExpression());
+        } else if (node instanceof ReturnStatementNode) {
+            ASTNode expression = ((ReturnStatementNode) node).getExpression();
+            if (expression != null) {
+                typeOfExpression(expression);
+            }
+        } else {
+            throw new UnsupportedException("unsupported statement " + node.getClass().getName());
+        }
+    }
+
+    private void requireBoolean(ASTNode condition) throws UnsupportedException {
+        if (!typeOfExpression(condition).equals(BOOLEAN)) {
+            throw new UnsupportedException("condition is not a boolean");
+        }
+    }
+
+    // Java treats a loop on a constant condition as never ending, or never entered, and rejects the
+    // code around it as unreachable. The optimizer folds constant conditions into ConstantNodes.
+    private void requireLoopCondition(ASTNode condition) throws UnsupportedException {
+        if (condition instanceof ConstantNode) {
+            throw new UnsupportedException("loop condition is constant");
+        }
+        requireBoolean(condition);
+    }
+
+    private String typeOfExpression(ASTNode node) throws UnsupportedException {
+        if (node instanceof ConstantNode) {
+            return typeOf(((ConstantNode) node).getTag());
+        } else if (node instanceof VariableReferenceNode) {
+            VariableReferenceNode reference = (VariableReferenceNode) node;
+            if (reference.isGlobal()) {
+                throw new UnsupportedException("reads a global");
+            }
+            if (slotTypes[reference.getSlot()] == null) {
+                throw new UnsupportedException("reads a local before assigning it");
+            }
+            return slotTypes[reference.getSlot()];
+        } else if (node instanceof ConcatNode) {
+            for (ASTNode part : ((ConcatNode) node).getPartArray()) {
+                typeOfExpression(part);
+            }
+            return STRING;
+        } else if (node instanceof BinaryOperationNode) {
+            BinaryOperationNode binOp = (BinaryOperationNode) node;
+            String left = typeOfExpression(binOp.getLeft());
+            String right = typeOfExpression(binOp.getRight());
+            if (binOp.getOperator().isComparison() && (left.equals(STRING) || right.equals(STRING)
+                    || left.equals(BOOLEAN) || right.equals(BOOLEAN))) {
+                // Strings compare by text and booleans by equality; mixed types are left to the interpreter
+                boolean ordering = binOp.getOperator() != Operator.EQ && binOp.getOperator() != Operator.NE;
+                if (!left.equals(right) || (left.equals(BOOLEAN) && ordering)) {
+                    throw new UnsupportedException("unsupported comparison");
+                }
+                return BOOLEAN;
+            }
+            if (left.equals(STRING) || right.equals(STRING)) {
+                return STRING;
+            }
+            if (left.equals(BOOLEAN) || right.equals(BOOLEAN)) {
+                throw new UnsupportedException("unsupported operands");
+            }
+            if (binOp.getOperator().isComparison()) {
+                return BOOLEAN;
+            }
+            return left.equals(INT) && right.equals(INT) ? INT : DOUBLE;
+        }
+        throw new UnsupportedException("unsupported expression " + node.getClass().getName());
+    }
+
+    private static String typeOf(Object tag) throws UnsupportedException {
+        if (tag == Values.INT) {
+            return INT;
+        } else if (tag == Values.DOUBLE) {
+            return DOUBLE;
+        } else if (tag == Values.BOOL) {
+            return BOOLEAN;
+        } else if (tag instanceof CharSequence) {
+            return STRING; // A String or a Rope
+        }
+        throw new UnsupportedException("unsupported value type");
+    }
+
+    // Translates a statement and returns whether the code after it can be reached, as javac sees it.
+    // Statements after a Bolav are left out, since javac rejects them and they never run anyway.
+    private boolean translateStatement(ASTNode node, String indent) throws UnsupportedException {
+        if (node == null) {
+            return true;
+        }
+        if (node instanceof BlockNode) {
+            for (ASTNode statement : ((BlockNode) node).getStatements()) {
+                if (!translateStatement(statement, indent)) {
+                    return false;
+                }
+            }
+        } else if (node instanceof VariableDeclarationNode) {
+            VariableDeclarationNode varDeclNode = (VariableDeclarationNode) node;
+            source.append(indent).append('v').append(varDeclNode.getSlot()).append(" = ")
+                    .append(translateExpression(varDeclNode.getValue())).append(";\n");
+        } else if (node instanceof AssignmentNode) {
+            AssignmentNode assignmentNode = (AssignmentNode) node;
+            source.append(indent).append('v').append(assignmentNode.getSlot()).append(" = ")
+                    .append(translateExpression(assignmentNode.getValue())).append(";\n");
+        } else if (node instanceof WhileStatementNode) {
+            WhileStatementNode whileStmtNode = (WhileStatementNode) node;
+            source.append(indent).append("while (").append(translateExpression(whileStmtNode.getCondition()))
+                    .append(") {\n");
+            if (translateStatement(whileStmtNode.getBody(), indent + "    ")) {
+                source.append(indent).append("    ProgramInterruptedException.check();\n");
+            }
+            source.append(indent).append("}\n");
+        } else if (node instanceof ForStatementNode) {
+            ForStatementNode forStmtNode = (ForStatementNode) node;
+            translateStatement(forStmtNode.getInitialization(), indent);
+            source.append(indent).append("while (").append(translateExpression(forStmtNode.getCondition()))
+                    .append(") {\n");
+            // A body that always ends in a Bolav never gets to the increment or back to the condition
+            if (translateStatement(forStmtNode.getBody(), indent + "    ")) {
+                translateStatement(forStmtNode.getIncrement(), indent + "    ");
+                source.append(indent).append("    ProgramInterruptedException.check();\n");
+            }
+            source.append(indent).append("}\n");
+        } else if (node instanceof IfStatementNode) {
+            IfStatementNode ifStmtNode = (IfStatementNode) node;
+            source.append(indent).append("if (").append(translateExpression(ifStmtNode.getCondition()))
+                    .append(") {\n");
+            boolean reachable = translateStatement(ifStmtNode.getThenBranch(), indent + "    ");
+            if (ifStmtNode.getElseBranch() != null) {
+                source.append(indent).append("} else {\n");
+                reachable = translateStatement(ifStmtNode.getElseBranch(), indent + "    ") || reachable;
+            } else {
+                reachable = true;
+            }
+            source.append(indent).append("}\n");
+            return reachable;
+        } else if (node instanceof PrintStatementNode) {
+            source.append(indent).append("output.print(")
+                    .append(translateExpression(((PrintStatementNode) node).getExpression())).append(");\n");
+        } else if (node instanceof ReturnStatementNode) {
+            ASTNode expression = ((ReturnStatementNode) node).getExpression();
+            if (expression == null) {
+                source.append(indent).append("result.set(null, 0);\n");
+            } else {
+                String value = translateExpression(expression);
+                switch (typeOfExpression(expression)) {
+                    case INT:
+                        source.append(indent).append("result.setInt(").append(value).append(");\n");
+                        break;
+                    case DOUBLE:
+                        source.append(indent).append("result.setDouble(").append(value).append(");\n");
+                        break;
+                    case BOOLEAN:
+                        source.append(indent).append("result.setBoolean(").append(value).append(");\n");
+                        break;
+                    default:
+                        source.append(indent).append("result.set(").append(value).append(", 0);\n");
+                        break;
+                }
+            }
+            source.append(indent).append("return true;\n");
+            return false;
+        }
+        return true;
+    }
+
+    private String translateExpression(ASTNode node) throws UnsupportedException {
+        if (node instanceof ConstantNode) {
+            ConstantNode constant = (ConstantNode) node;
+            Object tag = constant.getTag();
+            if (tag == Values.INT) {
+                return "(" + (int) constant.getBits() + ")";
+            } else if (tag == Values.DOUBLE) {
+                return "Double.longBitsToDouble(" + constant.getBits() + "L)";
+            } else if (tag == Values.BOOL) {
+                return constant.getBits() != 0 ? "true" : "false";
+            }
+            return quote(tag.toString());
+        } else if (node instanceof VariableReferenceNode) {
+            return "v" + ((VariableReferenceNode) node).getSlot();
+        } else if (node instanceof ConcatNode) {
+            StringBuilder concat = new StringBuilder("(\"\"");
+            for (ASTNode part : ((ConcatNode) node).getPartArray()) {
+                concat.append(" + ").append(translateExpression(part));
+            }
+            return concat.append(')').toString();
+        } else if (node instanceof BinaryOperationNode) {
+            BinaryOperationNode binOp = (BinaryOperationNode) node;
+            String leftType = typeOfExpression(binOp.getLeft());
+            String rightType = typeOfExpression(binOp.getRight());
+            String left = translateExpression(binOp.getLeft());
+            String right = translateExpression(binOp.getRight());
+            if (binOp.getOperator().isComparison() && leftType.equals(STRING)) {
+                return "(" + left + ".compareTo(" + right + ") " + binOp.getOperator().getSymbol() + " 0)";
+            }
+            if (leftType.equals(STRING) || rightType.equals(STRING)) {
+                return "(String.valueOf(" + left + ") + String.valueOf(" + right + "))";
+            }
+            if (binOp.getOperator() == Operator.DIV) {
+                return "JitCompiler.divide(" + left + ", " + right + ")";
+            }
+            if (!leftType.equals(rightType)) {
+                left = "(double) " + left;
+            }
+            return "(" + left + " " + binOp.getOperator().getSymbol() + " " + right + ")";
+        }
+        throw new UnsupportedException("unsupported expression " + node.getClass().getName());
+    }
+
+    // Division with the interpreter's error for a zero divisor, called from compiled code
+    public static int divide(int left, int right) {
+        if (right == 0) {
+            throw new RuntimeException("Division by zero error");
+        }
+        return left / right;
+    }
+
+    public static double divide(double left, double right) {
+        if (right == 0) {
+            throw new RuntimeException("Division by zero error");
+        }
+        return left / right;
+    }
+
+    private static String quote(String value) {
+        StringBuilder quoted = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c >= 0x20 && c < 0x7f && c != '"' && c != '\\') {
+                quoted.append(c);
+            } else {
+                quoted.append(String.format("\\u%04x", (int) c));
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    private static String sanitize(String name) {
+        StringBuilder sanitized = new StringBuilder();
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            sanitized.append(c < 0x80 && Character.isLetterOrDigit(c) ? c : '_');
+        }
+        return sanitized.toString();
+    }
+
+    // Compiles one class in memory and returns its class file, or null if javac reports errors
+    private byte[] compileSource(String className, String javaSource) {
+        JavaFileObject sourceFile = new SimpleJavaFileObject(URI.create("string:///" + className + ".java"),
+                JavaFileObject.Kind.SOURCE) {
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                return javaSource;
+            }
+        };
+
+        Map<String, ByteArrayOutputStream> classFiles = new HashMap<>();
+        StandardJavaFileManager standardManager = javac.getStandardFileManager(null, null, null);
+        JavaFileManager fileManager = new ForwardingJavaFileManager<StandardJavaFileManager>(standardManager) {
+            @Override
+            public JavaFileObject getJavaFileForOutput(JavaFileManager.Location location, String name,
+                    JavaFileObject.Kind kind, FileObject sibling) {
+                return new SimpleJavaFileObject(URI.create("mem:///" + name + ".class"), kind) {
+                    @Override
+                    public OutputStream openOutputStream() {
+                        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                        classFiles.put(name, bytes);
+                        return bytes;
+                    }
+                };
+            }
+        };
+
+        List<String> options = Arrays.asList("-classpath", System.getProperty("java.class.path"), "-nowarn");
+        boolean compiled = javac.getTask(null, fileManager, diagnostic -> { }, options, null,
+                Arrays.asList(sourceFile)).call();
+        ByteArrayOutputStream classFile = classFiles.get(className);
+        return compiled && classFile != null ? classFile.toByteArray() : null;
+    }
+}
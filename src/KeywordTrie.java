@@ -0,0 +1,65 @@
+// KeywordTrie.java
+import java.util.Arrays;
+
+// Matches the Marathi keywords at a position in the source with a single walk over the characters.
+public class KeywordTrie {
+    private static final int ALPHABET = 128; // Keywords are plain ASCII
+
+    private int[] transitions; // node * ALPHABET + character -> child node, 0 means no edge
+    private int[] accepts;     // node -> index of the keyword ending there, -1 if none
+    private int[] lengths;     // keyword index -> keyword length
+
+    public KeywordTrie(String[] keywords) {
+        int maxNodes = 1;
+        for (String keyword : keywords) {
+            maxNodes += keyword.length();
+        }
+        transitions = new int[maxNodes * ALPHABET];
+        accepts = new int[maxNodes];
+        lengths = new int[keywords.length];
+        Arrays.fill(accepts, -1);
+
+        int nodeCount = 1; // Node 0 is the root
+        for (int k = 0; k < keywords.length; k++) {
+            String keyword = keywords[k];
+            int node = 0;
+            for (int i = 0; i < keyword.length(); i++) {
+                char c = keyword.charAt(i);
+                if (c >= ALPHABET) {
+                    throw new IllegalArgumentException("Keyword must be ASCII: " + keyword);
+                }
+                int edge = node * ALPHABET + c;
+                if (transitions[edge] == 0) {
+                    transitions[edge] = nodeCount++;
+                }
+                node = transitions[edge];
+            }
+            accepts[node] = k;
+            lengths[k] = keyword.length();
+        }
+    }
+
+    // Returns the index of the longest keyword starting at position, or -1 if none matches
+    public int match(char[] input, int position, int limit) {
+        int node = 0;
+        int matched = -1;
+        for (int i = position; i < limit; i++) {
+            char c = input[i];
+            if (c >= ALPHABET) {
+                break;
+            }
+            node = transitions[node * ALPHABET + c];
+            if (node == 0) {
+                break;
+            }
+            if (accepts[node] >= 0) {
+                matched = accepts[node];
+            }
+        }
+        return matched;
+    }
+
+    public int length(int keyword) {
+        return lengths[keyword];
+    }
+}
@@ -1,44 +1,153 @@
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.List;
 
 public class Main {
+    // Tokens kept buffered ahead of the parser in streaming mode
+    private static final int STREAM_LOOKAHEAD = 16;
+
     public static void main(String[] args) {
 
         String filePath = "test.marathi";
+        boolean streaming = false;
+        boolean useVm = false;
+        boolean useJit = false;
+        boolean useClosures = false;
+        int memoCapacity = 0;
+        String outputPath = null;
+        String cachePath = null;
+        String compilePath = null;
+
+        // Usage: Main [--stream] [--vm | --closures] [--jit] [--memo capacity] [--cache dir] [--output file]
+        //             [--trace spec] [file]
+        //        Main --compile file.mrlc file
+        // A file ending in .mrlc is run as a compiled program.
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("--stream")) {
+                streaming = true;
+            } else if (arg.equals("--vm")) {
+                useVm = true; // Run on the bytecode VM instead of the tree-walking interpreter
+            } else if (arg.equals("--closures")) {
+                useClosures = true; // Compile the AST to closures before running it
+            } else if (arg.equals("--jit")) {
+                useJit = true; // Let the interpreter compile hot functions to JVM classes
+            } else if (arg.equals("--memo") && i + 1 < args.length) {
+                memoCapacity = Integer.parseInt(args[++i]); // Cache results of pure functions, see PurityAnalyzer
+            } else if (arg.equals("--cache") && i + 1 < args.length) {
+                cachePath = args[++i]; // Keep parsed programs in this directory, see ProgramCache
+            } else if (arg.equals("--compile") && i + 1 < args.length) {
+                compilePath = args[++i]; // Write the compiled program here instead of running it, see CompiledProgram
+            } else if (arg.equals("--output") && i + 1 < args.length) {
+                outputPath = args[++i]; // Stream Chapa output to a file instead of printing it at the end
+            } else if (arg.equals("--trace") && i + 1 < args.length) {
+                Trace.configure(args[++i]); // For example "all=debug", see Trace
+            } else {
+                filePath = arg;
+            }
+        }
+
+        if (compilePath != null) {
+            compile(Paths.get(filePath), Paths.get(compilePath));
+            return;
+        }
+        boolean compiled = filePath.endsWith(CompiledProgram.EXTENSION);
 
-        // String fileContent = readFile(filePath);
+        // The script is memory-mapped and decoded as the tokenizer reads it
+        try (MappedSourceReader source = compiled ? null : new MappedSourceReader(Paths.get(filePath));
+                OutputStream output = outputPath != null ? Files.newOutputStream(Paths.get(outputPath)) : null) {
+            MarathiTokenizer tokenizer = compiled ? null : new MarathiTokenizer(source);
+            MarathiEngine engine;
+            MarathiInterpreter interpreter = null;
+            if (useVm) {
+                engine = new MarathiVM();
+            } else if (useClosures) {
+                engine = new ClosureInterpreter();
+            } else {
+                interpreter = new MarathiInterpreter();
+                if (!interpreter.setJitEnabled(useJit)) {
+                    System.err.println("--jit needs a JDK, but no Java compiler was found; running without it");
+                }
+                interpreter.setMemoCapacity(memoCapacity);
+                engine = interpreter;
+            }
+            if (output != null) {
+                engine.setOutputSink(new WriterOutputSink(output));
+            } else if (streaming) {
+                engine.setOutputSink(new WriterOutputSink(System.out)); // Print as the statements run
+            }
+            try {
+                if (compiled) {
+                    engine.interpret(CompiledProgram.load(Paths.get(filePath)));
+                } else if (streaming) {
+                    runStreaming(tokenizer, engine);
+                } else if (cachePath != null) {
+                    // Only the hash of the source is needed when the program has been parsed before
+                    ProgramCache programCache = new ProgramCache(Long.MAX_VALUE, Paths.get(cachePath));
+                    byte[] bytes = Files.readAllBytes(Paths.get(filePath));
+                    ASTNode ast = programCache.get(bytes,
+                            () -> parse(new MarathiTokenizer(new String(bytes, StandardCharsets.UTF_8))));
+                    System.err.println(programCache);
+                    engine.interpret(ast);
+                } else {
+                    engine.interpret(parse(tokenizer));
+                }
+            } finally {
+                // Print all accumulated output at the end, including what was printed before an error
+                engine.printFinalOutput();
+                if (interpreter != null && memoCapacity > 0) {
+                    for (MemoCache memoCache : interpreter.getMemoCaches()) {
+                        System.err.println("Memo cache " + memoCache);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
 
-        // String filePath = "test.marathi";
-        String input = readFile(filePath);
+    private static void compile(Path sourcePath, Path targetPath) {
+        try (MappedSourceReader source = new MappedSourceReader(sourcePath)) {
+            long size = CompiledProgram.compile(parse(new MarathiTokenizer(source)), sourcePath, targetPath);
+            System.err.println("Compiled " + sourcePath + " to " + targetPath + " (" + size + " bytes)");
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
 
-        MarathiTokenizer tokenizer = new MarathiTokenizer(input);
-        List<Token> tokens = tokenizer.tokenize();
+    private static ASTNode parse(MarathiTokenizer tokenizer) {
+        TokenStream tokens = tokenizer.tokenizeStream();
 
-        System.out.println("Tokens:");
-        for (Token token : tokens) {
-            System.out.println(token);
+        if (Trace.enabled(Trace.Category.LEXER, Trace.Level.DEBUG)) {
+            for (int i = 0; i < tokens.size(); i++) {
+                Token token = tokens.toToken(i);
+                Trace.log(Trace.Category.LEXER, Trace.Level.DEBUG, token::toString);
+            }
         }
 
         MarathiParser parser = new MarathiParser(tokens);
         ASTNode ast = parser.parse();
 
-        System.out.println("AST:");
-        System.out.println(ast);
-
-        MarathiInterpreter interpreter = new MarathiInterpreter();
-        interpreter.interpret(ast);
-        // Print all accumulated output at the end
-        interpreter.printFinalOutput();
+        Trace.log(Trace.Category.PARSER, Trace.Level.DEBUG, () -> "AST: " + ast);
+        return ast;
     }
 
-    private static String readFile(String filePath) {
-        try {
-            return new String(Files.readAllBytes(Paths.get(filePath)));
-        } catch (IOException e) {
-            e.printStackTrace();
-            return "";
-        }
+    // Executes each top-level statement as soon as it has been parsed, pulling tokens lazily, and
+    // pushes out what it printed before parsing the next. The whole loop runs on one DeepStack thread,
+    // so the engines run each statement directly instead of handing it to another thread.
+    private static void runStreaming(MarathiTokenizer tokenizer, MarathiEngine engine) {
+        MarathiParser parser = new MarathiParser(tokenizer.stream(STREAM_LOOKAHEAD));
+        OutputSink outputSink = engine.getOutputSink();
+
+        DeepStack.run(() -> {
+            ASTNode statement;
+            while ((statement = parser.parseNextStatement()) != null) {
+                engine.interpret(statement);
+                outputSink.flush();
+            }
+        });
     }
 }
@@ -0,0 +1,82 @@
+// MappedSourceReader.java
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// Reads a UTF-8 script through a memory-mapped file, decoding only as many characters as the
+// caller asks for. The file bytes stay outside the heap, so large scripts can be tokenized with a
+// small, fixed buffer.
+public class MappedSourceReader extends Reader {
+    // Files are mapped in regions so that scripts larger than 2 GB can be read as well
+    private static final long REGION_SIZE = 64L * 1024 * 1024;
+
+    private FileChannel channel;
+    private long fileSize;
+    private long regionStart; // File offset of the currently mapped region
+    private MappedByteBuffer region;
+    private CharsetDecoder decoder;
+    private boolean finished;
+
+    public MappedSourceReader(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        fileSize = channel.size();
+        decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+        mapRegion(0);
+    }
+
+    private void mapRegion(long start) throws IOException {
+        regionStart = start;
+        region = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(REGION_SIZE, fileSize - start));
+    }
+
+    private boolean isLastRegion() {
+        return regionStart + region.limit() >= fileSize;
+    }
+
+    @Override
+    public int read(char[] buffer, int offset, int length) throws IOException {
+        if (finished) {
+            return -1;
+        }
+        CharBuffer out = CharBuffer.wrap(buffer, offset, length);
+        while (out.hasRemaining()) {
+            boolean lastRegion = isLastRegion();
+            CoderResult result = decoder.decode(region, out, lastRegion);
+            if (result.isError()) {
+                result.throwException();
+            }
+            if (result.isOverflow()) {
+                break;
+            }
+
+            // The region is used up, except possibly for a character split across the region boundary
+            if (!lastRegion) {
+                mapRegion(regionStart + region.position());
+                continue;
+            }
+            if (decoder.flush(out).isOverflow()) {
+                break;
+            }
+            finished = true;
+            break;
+        }
+
+        int read = out.position() - offset;
+        return read == 0 && finished ? -1 : read;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
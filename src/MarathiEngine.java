@@ -0,0 +1,32 @@
+// MarathiEngine.java
+// Something that can run parsed Marathi programs: the tree-walking MarathiInterpreter, the
+// ClosureInterpreter or the MarathiVM
+public interface MarathiEngine {
+    // Runs a program or a single top-level statement
+    void interpret(ASTNode node);
+
+    // Runs a program loaded from a .mrlc file. It was optimized and resolved when it was compiled,
+    // so this must be the first thing the engine runs.
+    void interpret(CompiledProgram program);
+
+    // Where Chapa output goes; engines start with a StringOutputSink that captures it
+    OutputSink getOutputSink();
+
+    void setOutputSink(OutputSink outputSink);
+
+    // Everything printed by Chapa so far, one value per line, if the output sink keeps it
+    default String getOutput() {
+        return getOutputSink().getText();
+    }
+
+    default void printFinalOutput() {
+        OutputSink outputSink = getOutputSink();
+        outputSink.flush();
+        if (outputSink instanceof StringOutputSink) {
+            System.out.println("PROGRAM OUTPUT :");
+            for (String output : ((StringOutputSink) outputSink).getLines()) {
+                System.out.println("                 " + output);
+            }
+        }
+    }
+}
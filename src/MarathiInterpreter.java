@@ -1,25 +1,104 @@
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Set;
 import java.util.function.BiFunction;
-import java.util.ArrayList;
 import java.util.List;
 
-public class MarathiInterpreter {
-    // A symbol table to store variable names and their values
-    private Map<String, Object> symbolTable = new HashMap<>();
+public class MarathiInterpreter implements MarathiEngine {
+    // Assigns frame slots to variables before anything is executed
+    private Resolver resolver = new Resolver();
 
-    // List to accumulate output
-    private List<String> outputBuffer = new ArrayList<>();
+    // Global variable values, indexed by the slots the Resolver assigned, as tag and bits (see Values)
+    private Object[] globalTags = new Object[16];
+    private long[] globalBits = new long[16];
 
+    // Frames of the functions being executed; frameBase is where the current function's slots start
+    private CallStack callStack = new CallStack();
+    private int frameBase;
+
+    // Result register: every evaluation leaves its value here as a tag plus primitive bits
+    // (see Values), so arithmetic on numbers never boxes
+    private ValueRegister result = new ValueRegister();
+
+    // Parses literals once and folds constant expressions before resolution
+    private AstOptimizer optimizer = new AstOptimizer();
+
+    // Where Chapa output goes
+    private OutputSink outputSink = new StringOutputSink();
+
+    // Compiles functions to JVM classes once they have been called JIT_THRESHOLD times, if enabled
+    private static final int JIT_THRESHOLD = 1000;
+    private JitCompiler jitCompiler;
+
+    // Caches the results of pure functions, each in an LRU cache of memoCapacity entries; 0 turns
+    // it off. Caches are kept by function name so their counters survive redeclarations.
+    private int memoCapacity;
+    private PurityAnalyzer purityAnalyzer = new PurityAnalyzer();
+    private Map<String, MemoCache> memoCaches = new LinkedHashMap<>();
+
+    // Optimizes, resolves and runs a program or a single top-level statement
+    @Override
     public void interpret(ASTNode node) {
+        node = optimizer.optimize(node);
+        resolver.resolve(node);
+        run(node);
+    }
+
+    @Override
+    public void interpret(CompiledProgram program) {
+        resolver.declareGlobals(program.getGlobalNames());
+        run(program.getProgram());
+    }
+
+    private void run(ASTNode program) {
+        if (resolver.getGlobalCount() > globalTags.length) {
+            int capacity = Math.max(resolver.getGlobalCount(), globalTags.length * 2);
+            globalTags = Arrays.copyOf(globalTags, capacity);
+            globalBits = Arrays.copyOf(globalBits, capacity);
+        }
+        DeepStack.run(() -> execute(program));
+    }
+
+    // Enables or disables compiling hot functions with the JitCompiler. Returns false, leaving it
+    // disabled, if there is no system Java compiler to compile them with.
+    public boolean setJitEnabled(boolean enabled) {
+        JitCompiler compiler = enabled ? new JitCompiler() : null;
+        jitCompiler = compiler != null && compiler.isAvailable() ? compiler : null;
+        return jitCompiler != null || !enabled;
+    }
+
+    // Enables memoizing pure functions with up to capacity results each, or disables it with 0.
+    // Takes effect for functions declared from then on.
+    public void setMemoCapacity(int capacity) {
+        memoCapacity = capacity;
+    }
+
+    // The caches of the functions memoized so far, with their hit and miss counts
+    public Collection<MemoCache> getMemoCaches() {
+        return Collections.unmodifiableCollection(memoCaches.values());
+    }
+
+    // Executes a statement and returns true if it ran a Bolav. The returned value is then in the
+    // result register, and every enclosing block and loop stops and passes the true on until it
+    // reaches the function call; nothing unwinds with an exception.
+    private boolean execute(ASTNode node) {
         if (node instanceof BlockNode) {
-            interpretBlockNode((BlockNode) node);
+            return interpretBlockNode((BlockNode) node);
         } else if (node instanceof WhileStatementNode) {
-            interpretWhileStatementNode((WhileStatementNode) node);
+            return interpretWhileStatementNode((WhileStatementNode) node);
+        } else if (node instanceof CountedLoopNode) {
+            return interpretCountedLoopNode((CountedLoopNode) node);
         } else if (node instanceof ForStatementNode) {
-            interpretForStatementNode((ForStatementNode) node);
+            return interpretForStatementNode((ForStatementNode) node);
         } else if (node instanceof IfStatementNode) {
-            interpretIfStatementNode((IfStatementNode) node);
+            return interpretIfStatementNode((IfStatementNode) node);
+        } else if (node instanceof ReturnStatementNode) {
+            interpretReturnStatementNode((ReturnStatementNode) node);
+            return true;
         } else if (node instanceof VariableDeclarationNode) {
             interpretVariableDeclarationNode((VariableDeclarationNode) node);
         } else if (node instanceof PrintStatementNode) {
@@ -33,115 +112,139 @@ public class MarathiInterpreter {
         } else {
             throw new RuntimeException("Unexpected AST node type: " + node.getClass().getName());
         }
+        return false;
     }
 
-    private void interpretBlockNode(BlockNode blockNode) {
+    private boolean interpretBlockNode(BlockNode blockNode) {
         for (ASTNode statement : blockNode.getStatements()) {
-            System.out.println("    Interpreting statement in the block..."); // Add debug info for each statement in
-                                                                              // the block
-            interpret(statement);
+            if (Trace.enabled(Trace.Category.INTERPRETER, Trace.Level.TRACE)) {
+                Trace.log(Trace.Category.INTERPRETER, Trace.Level.TRACE, () -> "Interpreting statement in the block...");
+            }
+            if (execute(statement)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void interpretReturnStatementNode(ReturnStatementNode returnStmtNode) {
+        if (returnStmtNode.getExpression() != null) {
+            evaluate(returnStmtNode.getExpression());
+        } else {
+            result.set(null, 0); // Returns no value
         }
     }
 
     private void interpretAssignmentNode(AssignmentNode assignmentNode) {
-        String variableName = assignmentNode.getVariableName();
-        Object value = evaluateExpression(assignmentNode.getValue()); // Evaluate the right-hand side
-        symbolTable.put(variableName, value); // Store the result in the symbol table
+        evaluate(assignmentNode.getValue()); // Evaluate the right-hand side
+        store(assignmentNode.getSlot(), assignmentNode.isGlobal()); // Store the result in its slot
     }
 
-    private void interpretIfStatementNode(IfStatementNode ifStmtNode) {
-        ConditionNode condition = (ConditionNode) ifStmtNode.getCondition();
-        System.out.println("Interpreting If Statement...");
-        System.out.println("  Evaluating Condition:");
-        System.out.println("    Variable: " + condition.getVariableName());
-        System.out.println("    Operator: " + condition.getOperator());
-        System.out.println("    Value: " + condition.getValue());
+    private boolean interpretIfStatementNode(IfStatementNode ifStmtNode) {
+        ASTNode condition = ifStmtNode.getCondition();
+        if (Trace.enabled(Trace.Category.INTERPRETER, Trace.Level.DEBUG)) {
+            Trace.log(Trace.Category.INTERPRETER, Trace.Level.DEBUG, () -> "Interpreting If Statement: " + condition);
+        }
 
         // Evaluate the condition
-        boolean conditionIsTrue = evaluateCondition(condition);
+        boolean conditionIsTrue = evaluateBoolean(condition);
 
         if (conditionIsTrue) {
-            System.out.println("  Then Branch:"); // Add this line to clearly indicate we're in the thenBranch
-            interpret(ifStmtNode.getThenBranch());
+            return execute(ifStmtNode.getThenBranch());
         } else if (ifStmtNode.getElseBranch() != null) {
-            System.out.println("  Else Branch:"); // Similarly for elseBranch
-            interpret(ifStmtNode.getElseBranch());
-        }
-
-        System.out.println("\n\n"); // Add space for clarity after interpreting the statement
-    }
-
-    private boolean evaluateCondition(ConditionNode condition) {
-        Object variableValue = symbolTable.get(condition.getVariableName());
-        String operator = condition.getOperator();
-        Object conditionValue = condition.getValue();
-
-        if (variableValue == null) {
-            throw new RuntimeException("Undefined variable: " + condition.getVariableName());
-        }
-
-        int variableIntValue = Integer.parseInt(variableValue.toString());
-        int conditionIntValue = Integer.parseInt(conditionValue.toString());
-
-        switch (operator) {
-            case "==":
-                return variableIntValue == conditionIntValue;
-            case "<":
-                return variableIntValue < conditionIntValue;
-            case ">":
-                return variableIntValue > conditionIntValue;
-            case "<=":
-                return variableIntValue <= conditionIntValue;
-            case ">=":
-                return variableIntValue >= conditionIntValue;
-            default:
-                throw new RuntimeException("Unsupported operator: " + operator);
+            return execute(ifStmtNode.getElseBranch());
         }
+        return false;
     }
 
-    private void interpretWhileStatementNode(WhileStatementNode whileStmtNode) {
+    private boolean interpretWhileStatementNode(WhileStatementNode whileStmtNode) {
         while (true) {
             // Evaluate the condition
-            Boolean conditionValue = (Boolean) evaluateExpression(whileStmtNode.getCondition());
-
-            if (!conditionValue) {
-                break; // Exit the loop if the condition is false
+            if (!evaluateBoolean(whileStmtNode.getCondition())) {
+                return false; // Exit the loop if the condition is false
             }
 
             // Execute the loop body
-            interpret(whileStmtNode.getBody());
+            if (execute(whileStmtNode.getBody())) {
+                return true;
+            }
+            ProgramInterruptedException.check();
         }
     }
 
-    private void interpretForStatementNode(ForStatementNode forStmtNode) {
+    private boolean interpretForStatementNode(ForStatementNode forStmtNode) {
         // Interpret the initialization
-        interpret(forStmtNode.getInitialization());
+        if (forStmtNode.getInitialization() != null) {
+            execute(forStmtNode.getInitialization());
+        }
+
+        return runForLoop(forStmtNode);
+    }
 
+    private boolean runForLoop(ForStatementNode forStmtNode) {
         // Interpret the condition, increment, and loop body
-        while ((boolean) evaluateExpression(forStmtNode.getCondition())) {
-            interpret(forStmtNode.getBody());
-            interpret(forStmtNode.getIncrement());
+        while (evaluateBoolean(forStmtNode.getCondition())) {
+            if (execute(forStmtNode.getBody())) {
+                return true;
+            }
+            execute(forStmtNode.getIncrement());
+            ProgramInterruptedException.check();
+        }
+        return false;
+    }
+
+    // Keeps the counter in a Java int while the bound and the counter variable hold ints, so an
+    // iteration costs a tag check instead of evaluating the condition and the increment. Whatever
+    // the body does to the counter is seen, since it is read back from its slot every time; if it
+    // stops being an int the generic loop takes over where this one left off.
+    private boolean interpretCountedLoopNode(CountedLoopNode loop) {
+        if (loop.getInitialization() != null) {
+            execute(loop.getInitialization());
+        }
+
+        evaluate(loop.getBound());
+        if (result.getTag() == Values.INT) {
+            int bound = (int) result.getBits();
+            boolean inclusive = loop.isInclusive();
+            int slot = loop.getCounter().getSlot();
+            boolean global = loop.getCounter().isGlobal();
+            ASTNode body = loop.getBody();
+            while (true) {
+                load(slot, global);
+                if (result.getTag() != Values.INT) {
+                    break;
+                }
+                int counter = (int) result.getBits();
+                if (inclusive ? counter > bound : counter >= bound) {
+                    return false;
+                }
+                if (execute(body)) {
+                    return true;
+                }
+                load(slot, global);
+                if (result.getTag() == Values.INT) {
+                    store(slot, global, Values.INT, (int) result.getBits() + 1);
+                } else {
+                    execute(loop.getIncrement());
+                }
+                ProgramInterruptedException.check();
+            }
         }
+        return runForLoop(loop);
     }
 
     private void interpretVariableDeclarationNode(VariableDeclarationNode varDeclNode) {
-        System.out.println("Interpreting Variable Declaration:");
-        System.out.println("  Variable Name: " + varDeclNode.getVariableName());
-        System.out.println("  Value: " + varDeclNode.getValue());
+        if (Trace.enabled(Trace.Category.INTERPRETER, Trace.Level.DEBUG)) {
+            Trace.log(Trace.Category.INTERPRETER, Trace.Level.DEBUG, () -> "Interpreting Variable Declaration: "
+                    + varDeclNode.getVariableName() + " = " + varDeclNode.getValue());
+        }
 
-        // Check the type of the value and store it in the symbol table
-        if (varDeclNode.getValue() instanceof NumberNode) {
-            // Handle integer numbers
-            NumberNode numberNode = (NumberNode) varDeclNode.getValue();
-            symbolTable.put(varDeclNode.getVariableName(), Integer.parseInt(numberNode.getValue()));
-        } else if (varDeclNode.getValue() instanceof FloatNode) {
-            // Handle floating-point numbers
-            FloatNode floatNode = (FloatNode) varDeclNode.getValue();
-            symbolTable.put(varDeclNode.getVariableName(), Double.parseDouble(floatNode.getValue()));
-        } else if (varDeclNode.getValue() instanceof StringNode) {
-            // Handle strings
-            StringNode stringNode = (StringNode) varDeclNode.getValue();
-            symbolTable.put(varDeclNode.getVariableName(), stringNode.getValue());
+        // Check the type of the value and store it in its slot
+        ASTNode value = varDeclNode.getValue();
+        if (value instanceof NumberNode || value instanceof FloatNode || value instanceof StringNode
+                || value instanceof ConstantNode) {
+            evaluate(value);
+            store(varDeclNode.getSlot(), varDeclNode.isGlobal());
         } else {
             throw new RuntimeException(
                     "Unsupported variable declaration value type: " + varDeclNode.getValue().getClass().getName());
@@ -149,12 +252,75 @@ public class MarathiInterpreter {
     }
 
     private Map<String, FunctionDeclarationNode> functionTable = new HashMap<>(); // Store functions
+    private int functionTableVersion; // Changes whenever a function is declared, invalidating call-site caches
 
     private void interpretFunctionDeclarationNode(FunctionDeclarationNode funcDeclNode) {
         functionTable.put(funcDeclNode.getFunctionName(), funcDeclNode); // Store the function in the function table
+        functionTableVersion++;
+        if (memoCapacity > 0) {
+            updateMemoCaches();
+        }
     }
 
+    // Gives every pure function a cache and takes it from the others. A declaration can change what
+    // any function computes, through the functions it calls, so all cached results are dropped.
+    private void updateMemoCaches() {
+        Set<String> pure = purityAnalyzer.analyze(functionTable);
+        for (MemoCache memoCache : memoCaches.values()) {
+            memoCache.clear();
+        }
+        for (FunctionDeclarationNode funcDecl : functionTable.values()) {
+            String name = funcDecl.getFunctionName();
+            if (pure.contains(name)) {
+                funcDecl.setMemoCache(memoCaches.computeIfAbsent(name, key -> new MemoCache(key, memoCapacity)));
+            } else {
+                funcDecl.setMemoCache(null);
+            }
+        }
+    }
+
+    // Calls a function and leaves its return value in the result register, with an undefined tag if
+    // it returned none
     private void interpretFunctionCallNode(FunctionCallNode funcCallNode) {
+        ProgramInterruptedException.check();
+        ASTNode[] arguments = funcCallNode.getArgumentArray();
+        FunctionDeclarationNode funcDecl = funcCallNode.getCachedFunction(functionTableVersion);
+        if (funcDecl == null) {
+            funcDecl = resolveFunction(funcCallNode);
+        }
+
+        // Evaluate the arguments in the caller's frame, straight into the parameter slots of the new one
+        int base = callStack.push(funcDecl.getFrameSize());
+        int callerBase = frameBase;
+        try {
+            for (int i = 0; i < arguments.length; i++) {
+                evaluate(arguments[i]);
+                callStack.set(base + i, result.getTag(), result.getBits());
+            }
+
+            MemoCache memoCache = funcDecl.getMemoCache();
+            if (memoCache != null) {
+                runMemoized(funcDecl, memoCache, base);
+                return;
+            }
+
+            if (jitCompiler != null && runCompiled(funcDecl, base)) {
+                return;
+            }
+
+            // Execute the function body in its own frame
+            frameBase = base;
+            if (!execute(funcDecl.getBody())) {
+                result.set(null, 0);
+            }
+        } finally {
+            frameBase = callerBase;
+            callStack.pop(base);
+        }
+    }
+
+    // Looks up the function a call refers to, checks the arity and caches the result on the call site
+    private FunctionDeclarationNode resolveFunction(FunctionCallNode funcCallNode) {
         String functionName = funcCallNode.getFunctionName();
         FunctionDeclarationNode funcDecl = functionTable.get(functionName); // Get the function declaration
 
@@ -162,135 +328,143 @@ public class MarathiInterpreter {
             throw new RuntimeException("Undefined function: " + functionName);
         }
 
-        // Evaluate the arguments
-        List<Object> argumentValues = new ArrayList<>();
-        for (ASTNode arg : funcCallNode.getArguments()) {
-            argumentValues.add(evaluateExpression(arg)); // Evaluate each argument
+        int argumentCount = funcCallNode.getArgumentArray().length;
+        if (argumentCount != funcDecl.getParameterCount()) {
+            throw new RuntimeException("Function " + functionName + " expects " + funcDecl.getParameterCount()
+                    + " arguments but got " + argumentCount);
         }
 
-        // Save the current symbol table
-        Map<String, Object> previousSymbolTable = new HashMap<>(symbolTable);
+        funcCallNode.cacheFunction(funcDecl, functionTableVersion);
+        return funcDecl;
+    }
 
-        // Bind the arguments to the parameters
-        for (int i = 0; i < funcDecl.getParameters().size(); i++) {
-            symbolTable.put(funcDecl.getParameters().get(i), argumentValues.get(i));
+    // Runs a pure function whose arguments are already in the frame at base, unless its result for
+    // them is cached
+    private void runMemoized(FunctionDeclarationNode funcDecl, MemoCache memoCache, int base) {
+        MemoCache.Key key = new MemoCache.Key(callStack, base, funcDecl.getParameterCount());
+        if (memoCache.lookup(key, result)) {
+            return;
         }
-
-        // Execute the function body
-        interpret(funcDecl.getBody());
-
-        // Restore the previous symbol table
-        symbolTable = previousSymbolTable;
+        frameBase = base;
+        if (!execute(funcDecl.getBody())) {
+            result.set(null, 0);
+        }
+        memoCache.store(key, result.getTag(), result.getBits());
     }
 
-    // Evaluate the expression (either a variable reference, number, or binary
-    // operation)
-    // Evaluate the expression (either a variable reference, number, or binary operation)
-private Object evaluateExpression(ASTNode node) {
-    if (node instanceof VariableReferenceNode) {
-        // Handle variable reference
-        String variableName = ((VariableReferenceNode) node).getVariableName();
-        return symbolTable.get(variableName);
-    } else if (node instanceof NumberNode) {
-        // Handle integer numbers
-        return Integer.parseInt(((NumberNode) node).getValue());
-    } else if (node instanceof FloatNode) {
-        // Handle floating-point numbers
-        return Double.parseDouble(((FloatNode) node).getValue());
-    } else if (node instanceof BinaryOperationNode) {
-        // Handle binary operations like a + b or relational operators
-        BinaryOperationNode binOp = (BinaryOperationNode) node;
-        Object left = evaluateExpression(binOp.getLeft());
-        Object right = evaluateExpression(binOp.getRight());
-        String operator = binOp.getOperator();
-
-        // Handle string concatenation
-        if (left instanceof String || right instanceof String) {
-            return left.toString() + right.toString();
+    // Runs the compiled version of a function whose arguments are already in the frame at base, and
+    // queues it for compilation when it becomes hot. Returns false if the call must be interpreted.
+    private boolean runCompiled(FunctionDeclarationNode funcDecl, int base) {
+        CompiledFunction compiled = funcDecl.getCompiledFunction();
+        if (compiled == null) {
+            if (funcDecl.countCall() == JIT_THRESHOLD) {
+                // Specialize for the argument types of this call
+                Object[] argumentTags = new Object[funcDecl.getParameterCount()];
+                for (int i = 0; i < argumentTags.length; i++) {
+                    argumentTags[i] = callStack.getTag(base + i);
+                }
+                jitCompiler.compileInBackground(funcDecl, argumentTags);
+            }
+            return false;
         }
+        return compiled.invoke(callStack, base, outputSink, result);
+    }
 
-        // Handle mixed-type arithmetic (integers and floats)
-        if (left instanceof Integer && right instanceof Integer) {
-            return evaluateBinaryOperation((Integer) left, (Integer) right, operator);
+    // Loads a variable into the result registers
+    private void load(int slot, boolean global) {
+        if (global) {
+            result.set(globalTags[slot], globalBits[slot]);
         } else {
-            return evaluateBinaryOperation(asDouble(left), asDouble(right), operator);
+            result.set(callStack.getTag(frameBase + slot), callStack.getBits(frameBase + slot));
         }
-    } else if (node instanceof StringNode) {
-        // Handle string literals
-        return ((StringNode) node).getValue();
-    } else {
-        throw new RuntimeException("Unknown expression type: " + node.getClass().getName());
     }
-}
 
-// Helper method to perform binary operations for integers
-private Object evaluateBinaryOperation(int left, int right, String operator) {
-    switch (operator) {
-        case "+":
-            return left + right;
-        case "-":
-            return left - right;
-        case "*":
-            return left * right;
-        case "/":
-            if (right == 0) throw new RuntimeException("Division by zero error");
-            return left / right;
-        case "<":
-            return left < right;
-        case ">":
-            return left > right;
-        case "<=":
-            return left <= right;
-        case ">=":
-            return left >= right;
-        case "==":
-            return left == right;
-        case "!=":
-            return left != right;
-        default:
-            throw new RuntimeException("Unsupported operator: " + operator);
+    // Stores the value in the result registers into a variable
+    private void store(int slot, boolean global) {
+        store(slot, global, result.getTag(), result.getBits());
     }
-}
 
-// Helper method to perform binary operations for doubles
-private Object evaluateBinaryOperation(double left, double right, String operator) {
-    switch (operator) {
-        case "+":
-            return left + right;
-        case "-":
-            return left - right;
-        case "*":
-            return left * right;
-        case "/":
-            if (right == 0) throw new RuntimeException("Division by zero error");
-            return left / right;
-        case "<":
-            return left < right;
-        case ">":
-            return left > right;
-        case "<=":
-            return left <= right;
-        case ">=":
-            return left >= right;
-        case "==":
-            return left == right;
-        case "!=":
-            return left != right;
-        default:
-            throw new RuntimeException("Unsupported operator: " + operator);
+    private void store(int slot, boolean global, Object tag, long bits) {
+        if (global) {
+            globalTags[slot] = tag;
+            globalBits[slot] = bits;
+        } else {
+            callStack.set(frameBase + slot, tag, bits);
+        }
     }
-}
 
+    private boolean evaluateBoolean(ASTNode node) {
+        evaluate(node);
+        if (result.getTag() != Values.BOOL) {
+            throw new RuntimeException("Condition must be a boolean but was " + Values.typeName(result.getTag()));
+        }
+        return result.getBits() != 0;
+    }
 
-    // Helper method to cast numbers to double if needed
-    private double asDouble(Object value) {
-        if (value instanceof Integer) {
-            return (double) (Integer) value;
-        } else if (value instanceof Double) {
-            return (Double) value;
+    // Evaluate the expression (either a variable reference, number, or binary operation)
+    // into the result registers
+    private void evaluate(ASTNode node) {
+        if (node instanceof VariableReferenceNode) {
+            // Handle variable reference
+            VariableReferenceNode reference = (VariableReferenceNode) node;
+            load(reference.getSlot(), reference.isGlobal());
+            if (result.getTag() == null) {
+                throw new RuntimeException("Undefined variable: " + reference.getVariableName());
+            }
+        } else if (node instanceof NumberNode) {
+            // Handle integer numbers
+            result.setInt(Integer.parseInt(((NumberNode) node).getValue()));
+        } else if (node instanceof FloatNode) {
+            // Handle floating-point numbers
+            result.setDouble(Double.parseDouble(((FloatNode) node).getValue()));
+        } else if (node instanceof BinaryOperationNode) {
+            // Handle binary operations like a + b or relational operators
+            evaluateBinaryOperation((BinaryOperationNode) node);
+        } else if (node instanceof FunctionCallNode) {
+            // Handle calls used for their return value
+            FunctionCallNode funcCallNode = (FunctionCallNode) node;
+            interpretFunctionCallNode(funcCallNode);
+            if (result.getTag() == null) {
+                throw new RuntimeException("Function " + funcCallNode.getFunctionName() + " did not return a value");
+            }
+        } else if (node instanceof ConcatNode) {
+            // Handle chains of string concatenation
+            evaluateConcat((ConcatNode) node);
+        } else if (node instanceof StringNode) {
+            // Handle string literals
+            result.set(((StringNode) node).getValue(), 0);
+        } else if (node instanceof ConstantNode) {
+            // Handle literals parsed ahead of time
+            ConstantNode constant = (ConstantNode) node;
+            result.set(constant.getTag(), constant.getBits());
         } else {
-            throw new RuntimeException("Unexpected value type: " + value.getClass().getName());
+            throw new RuntimeException("Unknown expression type: " + node.getClass().getName());
+        }
+    }
+
+    private void evaluateBinaryOperation(BinaryOperationNode binOp) {
+        evaluate(binOp.getLeft());
+        Object leftTag = result.getTag();
+        long leftBits = result.getBits();
+        evaluate(binOp.getRight());
+        binOp.apply(leftTag, leftBits, result.getTag(), result.getBits(), result);
+    }
+
+    // Joins the parts in one StringBuilder. A rope on the left, typically a string being built up in a
+    // loop, is linked to the rest instead of being copied.
+    private void evaluateConcat(ConcatNode concat) {
+        ASTNode[] parts = concat.getPartArray();
+        StringBuilder builder = new StringBuilder(concat.getCapacity());
+        evaluate(parts[0]);
+        Rope head = result.getTag() instanceof Rope ? (Rope) result.getTag() : null;
+        if (head == null) {
+            Values.appendTo(builder, result.getTag(), result.getBits());
         }
+        for (int i = 1; i < parts.length; i++) {
+            evaluate(parts[i]);
+            Values.appendTo(builder, result.getTag(), result.getBits());
+        }
+        result.set(head != null ? Rope.concat(head, builder.toString()) : builder.toString(), 0);
     }
 
     // A helper method to handle numeric operations between integers and floats
@@ -302,20 +476,21 @@ private Object evaluateBinaryOperation(double left, double right, String operato
 
     private void interpretPrintStatementNode(PrintStatementNode printStmtNode) {
         ASTNode expression = printStmtNode.getExpression(); // Get the expression in the print statement
-        Object value = evaluateExpression(expression); // Evaluate the expression (e.g., a + b)
+        evaluate(expression); // Evaluate the expression (e.g., a + b)
+        if (Trace.enabled(Trace.Category.INTERPRETER, Trace.Level.DEBUG)) {
+            String value = result.toString();
+            Trace.log(Trace.Category.INTERPRETER, Trace.Level.DEBUG, () -> "Actual OUTPUT: " + value);
+        }
+        outputSink.print(result.getTag(), result.getBits()); // Send it to the output sink
+    }
 
-        System.out.println("Actual OUTPUT: " + value); // Print the evaluated result
-        outputBuffer.add(value.toString()); // Accumulate output in the buffer
+    @Override
+    public OutputSink getOutputSink() {
+        return outputSink;
     }
 
-    public void printFinalOutput() {
-        System.out.println("PROGRAM OUTPUT :");
-        for (String output : outputBuffer) {
-            System.out.println("                 " + output);
-        }
-    }public String getOutput() {
-        return String.join("\n", outputBuffer);  // Join the output buffer into a single string
+    @Override
+    public void setOutputSink(OutputSink outputSink) {
+        this.outputSink = outputSink;
     }
 }
-
-
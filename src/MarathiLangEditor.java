@@ -3,12 +3,21 @@ import javax.swing.border.EmptyBorder;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
-import java.util.List;
+import java.nio.charset.StandardCharsets;
 
 public class MarathiLangEditor extends JFrame {
+    // Lines of program output shown in the output area
+    private static final int OUTPUT_LINES = 10000;
+
+    // Parsed programs, so running unchanged code again skips tokenizing and parsing
+    private static final long PROGRAM_CACHE_BYTES = 16L * 1024 * 1024;
+    private final ProgramCache programCache = new ProgramCache(PROGRAM_CACHE_BYTES, null);
+
     private JTextArea codeArea;
     private JTextArea outputArea;
-    private JButton runButton, clearButton;
+    private JButton runButton, stopButton, clearButton;
+    private ProgramRunner runner; // The program running, or null
+    private JComboBox<String> engineSelector;
     private JLabel fileLabel, outputLabel;
 
     public MarathiLangEditor() {
@@ -50,6 +59,7 @@ public class MarathiLangEditor extends JFrame {
         JPanel bottomPanel = new JPanel(new FlowLayout(FlowLayout.CENTER));
         bottomPanel.setBackground(Color.WHITE);
         runButton = new JButton("Run");
+        stopButton = new JButton("Stop");
         clearButton = new JButton("Clear");
 
         // Customizing the buttons (color and font)
@@ -58,14 +68,33 @@ public class MarathiLangEditor extends JFrame {
         runButton.setFocusPainted(false);
         runButton.setFont(new Font("SansSerif", Font.BOLD, 14));
 
+        stopButton.setBackground(Color.decode("#DC3545"));
+        stopButton.setForeground(Color.WHITE);
+        stopButton.setFocusPainted(false);
+        stopButton.setFont(new Font("SansSerif", Font.BOLD, 14));
+        stopButton.setEnabled(false); // Until a program is running
+
         clearButton.setBackground(Color.decode("#F8F9FA"));
         clearButton.setForeground(Color.BLACK);
         clearButton.setFocusPainted(false);
         clearButton.setFont(new Font("SansSerif", Font.BOLD, 14));
 
+        // Choice of execution engine
+        engineSelector = new JComboBox<>(new String[] { "Interpreter", "Bytecode VM", "Closure compiler" });
+        engineSelector.setFont(new Font("SansSerif", Font.PLAIN, 14));
+
         // Action for the "Run" button
         runButton.addActionListener(new RunCodeListener());
 
+        // Action for the "Stop" button: interrupts the running program
+        stopButton.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                if (runner != null) {
+                    runner.stop();
+                }
+            }
+        });
+
         // Action for the "Clear" button
         clearButton.addActionListener(new ActionListener() {
             public void actionPerformed(ActionEvent e) {
@@ -75,7 +104,9 @@ public class MarathiLangEditor extends JFrame {
 
         // Add buttons to the bottom panel
         bottomPanel.add(runButton);
+        bottomPanel.add(stopButton);
         bottomPanel.add(clearButton);
+        bottomPanel.add(engineSelector);
 
         // Label for the output section
         outputLabel = new JLabel("Output");
@@ -91,30 +122,53 @@ public class MarathiLangEditor extends JFrame {
     class RunCodeListener implements ActionListener {
         public void actionPerformed(ActionEvent e) {
             String code = codeArea.getText(); // Get the code written in the JTextArea
-            try {
-                String output = runMarathiInterpreter(code); // Process the code and get output
-                outputArea.setText(output); // Display the output in the output area
-            } catch (Exception ex) {
-                outputArea.setText("Error: " + ex.getMessage()); // Display any errors
-            }
+            outputArea.setText("");
+            outputLabel.setText("Output (running)");
+            runButton.setEnabled(false);
+            stopButton.setEnabled(true);
+
+            // The program runs in the background and its output appears as it is printed
+            runner = new ProgramRunner(outputArea, OUTPUT_LINES);
+            runner.start(createEngine(), () -> parse(code), error -> {
+                if (error != null) {
+                    outputArea.append("Error: " + error); // Display any errors
+                }
+                outputLabel.setText(parsedFromCache ? "Output (cached parse)" : "Output");
+                outputLabel.setToolTipText(programCache.toString());
+                runner = null;
+                runButton.setEnabled(true);
+                stopButton.setEnabled(false);
+            });
         }
     }
 
-    private String runMarathiInterpreter(String code) throws Exception {
-        // Step 1: Tokenize the input code
-        MarathiTokenizer tokenizer = new MarathiTokenizer(code);
-        List<Token> tokens = tokenizer.tokenize();
+    // Whether the last program parsed was found in the cache; only read once the program has finished
+    private volatile boolean parsedFromCache;
 
-        // Step 2: Parse the tokenized input
-        MarathiParser parser = new MarathiParser(tokens);
-        ASTNode ast = parser.parse();
-
-        // Step 3: Interpret the parsed AST and capture the output
-        MarathiInterpreter interpreter = new MarathiInterpreter();
-        interpreter.interpret(ast);
+    // Tokenizes and parses the code, unless it was parsed before. Called on the program thread.
+    private ASTNode parse(String code) {
+        long misses = programCache.getMisses();
+        ASTNode ast = programCache.get(code.getBytes(StandardCharsets.UTF_8),
+                () -> new MarathiParser(new MarathiTokenizer(code).tokenizeStream()).parse());
+        parsedFromCache = programCache.getMisses() == misses;
+        return ast;
+    }
 
-        // Return the output captured by the interpreter
-        return interpreter.getOutput(); // Use the getOutput() method
+    // The engine chosen in the selector
+    private MarathiEngine createEngine() {
+        MarathiEngine interpreter;
+        switch (engineSelector.getSelectedIndex()) {
+            case 1:
+                interpreter = new MarathiVM();
+                break;
+            case 2:
+                interpreter = new ClosureInterpreter();
+                break;
+            default:
+                interpreter = new MarathiInterpreter();
+                break;
+        }
+        return interpreter;
     }
 
     public static void main(String[] args) {
@@ -5,8 +5,13 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 
 public class MarathiLangEditorStyled {
+    // Lines of program output kept in the output console
+    private static final int OUTPUT_LINES = 10000;
+
     private JTextPane codeEditor;
     private JTextArea outputConsole;
+    private JButton runButton, stopButton;
+    private ProgramRunner runner; // The program running, or null
     private JFrame frame;
 
     public MarathiLangEditorStyled() {
@@ -31,7 +36,7 @@ public class MarathiLangEditorStyled {
         outputScrollPane.setPreferredSize(new Dimension(450, 400));
 
         // Create the Run button
-        JButton runButton = new JButton("Run");
+        runButton = new JButton("Run");
         runButton.setBackground(Color.BLUE);
         runButton.setForeground(Color.WHITE);
         runButton.setPreferredSize(new Dimension(80, 30));
@@ -42,6 +47,19 @@ public class MarathiLangEditorStyled {
             }
         });
 
+        // Create the Stop button, enabled while a program runs
+        stopButton = new JButton("Stop");
+        stopButton.setPreferredSize(new Dimension(80, 30));
+        stopButton.setEnabled(false);
+        stopButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                if (runner != null) {
+                    runner.stop();
+                }
+            }
+        });
+
         // Create the Clear button
         JButton clearButton = new JButton("Clear");
         clearButton.setPreferredSize(new Dimension(80, 30));
@@ -56,6 +74,7 @@ public class MarathiLangEditorStyled {
         JPanel buttonPanel = new JPanel();
         buttonPanel.setLayout(new FlowLayout(FlowLayout.LEFT));
         buttonPanel.add(runButton);
+        buttonPanel.add(stopButton);
         buttonPanel.add(clearButton);
 
         // Set up the layout of the frame
@@ -97,20 +116,26 @@ public class MarathiLangEditorStyled {
 
         Style commentStyle = sc.addStyle("comment", null);
         StyleConstants.setForeground(commentStyle, Color.GRAY);
+
+        // Recolors the lines each edit touches as the code is typed
+        doc.addDocumentListener(new SyntaxHighlighter(doc, sc));
     }
 
-    // Function to run the code in the editor
+    // Function to run the code in the background, showing its output as it is printed
     private void runCode() {
         String code = codeEditor.getText();
-        try {
-            // This is where you'd run the Marathi code through your interpreter
-            // Right now, let's mock an output.
-            outputConsole.append("Running code...\n");
-            outputConsole.append("Output:\n");
-            outputConsole.append("Program completed successfully.\n");
-        } catch (Exception e) {
-            outputConsole.append("Error: " + e.getMessage() + "\n");
-        }
+        runButton.setEnabled(false);
+        stopButton.setEnabled(true);
+        runner = new ProgramRunner(outputConsole, OUTPUT_LINES);
+        runner.start(new MarathiInterpreter(),
+                () -> new MarathiParser(new MarathiTokenizer(code).tokenizeStream()).parse(), error -> {
+                    if (error != null) {
+                        outputConsole.append("Error: " + error + "\n");
+                    }
+                    runner = null;
+                    runButton.setEnabled(true);
+                    stopButton.setEnabled(false);
+                });
     }
 
     // Function to clear the output console
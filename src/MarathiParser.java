@@ -2,169 +2,195 @@ import java.util.ArrayList;
 import java.util.List;
 
 public class MarathiParser {
-    private List<Token> tokens;
+    private TokenStream tokens;
     private int currentPosition;
 
-    public MarathiParser(List<Token> tokens) {
+    public MarathiParser(TokenStream tokens) {
         this.tokens = tokens;
         this.currentPosition = 0;
     }
 
     private Token currentToken() {
-        if (currentPosition >= tokens.size()) {
+        if (!tokens.has(currentPosition)) {
             return null;
         }
-        return tokens.get(currentPosition);
+        return tokens.toToken(currentPosition);
     }
 
-    private boolean match(String type) {
-        Token token = currentToken();
-        return token != null && token.getType().equals(type);
+    private boolean match(TokenType type) {
+        return tokens.has(currentPosition) && tokens.typeCode(currentPosition) == type.ordinal();
     }
 
-    private Token consume(String expectedType) {
-        if (currentPosition >= tokens.size()) {
+    private int consume(TokenType expectedType) {
+        if (!tokens.has(currentPosition)) {
             throw new RuntimeException("Unexpected end of input. Expected: " + expectedType);
         }
-        Token token = tokens.get(currentPosition);
-        if (!token.getType().equals(expectedType)) {
+        if (tokens.typeCode(currentPosition) != expectedType.ordinal()) {
             throw new RuntimeException(
-                    "Expected " + expectedType + " but found " + token.getType() + ": " + token.getValue());
+                    "Expected " + expectedType + " but found " + tokens.type(currentPosition) + ": "
+                            + tokens.text(currentPosition));
         }
-        currentPosition++;
-        return token;
+        return currentPosition++;
+    }
+
+    // Consumes a token and materializes its text
+    private String consumeText(TokenType expectedType) {
+        return tokens.text(consume(expectedType));
     }
 
     public ASTNode parse() {
         return parseBlock();
     }
 
+    // Parses the next top-level statement, or returns null at the end of the program.
+    // Used to execute a script while it is still being parsed.
+    public ASTNode parseNextStatement() {
+        if (!tokens.has(currentPosition) || match(TokenType.RBRACE)) {
+            return null;
+        }
+        return parseStatement();
+    }
+
     private ASTNode parseBlock() {
         List<ASTNode> statements = new ArrayList<>();
-        while (currentToken() != null && !match("RBRACE")) { // Continue parsing until a closing brace is encountered
+        while (tokens.has(currentPosition) && !match(TokenType.RBRACE)) { // Continue parsing until a closing brace is encountered
             statements.add(parseStatement());
         }
         return new BlockNode(statements); // Return the block node
     }
 
     private ASTNode parseStatement() {
-        if (match("VAR_DECL")) {
+        if (match(TokenType.VAR_DECL)) {
             return parseVariableDeclaration();
-        } else if (match("PRINT")) {
+        } else if (match(TokenType.PRINT)) {
             return parsePrintStatement();
         } 
-        else if (match("FOR")) {
+        else if (match(TokenType.FOR)) {
             return parseForStatement();
-        }else if (match("IF")) {
+        }else if (match(TokenType.IF)) {
             return parseIfStatement();
-        } else if (match("WHILE")) {  // Handle while loops
+        } else if (match(TokenType.WHILE)) {  // Handle while loops
             return parseWhileStatement();
-        } else if (match("IDENTIFIER")) {  // Handle assignment or function calls
-            Token identifierToken = consume("IDENTIFIER");
+        } else if (match(TokenType.BOLAV)) {  // Handle returns
+            return parseReturnStatement();
+        } else if (match(TokenType.IDENTIFIER)) {  // Handle assignment or function calls
+            String identifier = consumeText(TokenType.IDENTIFIER);
             
-            if (match("OPERATOR") && currentToken().getValue().equals("=")) {  // Handle assignments
-                return parseAssignment(identifierToken.getValue());
+            if (match(TokenType.OPERATOR) && tokens.textEquals(currentPosition, "=")) {  // Handle assignments
+                return parseAssignment(identifier);
             } else {  // Handle function calls
-                return parseFunctionCall(identifierToken.getValue());
+                ASTNode call = parseFunctionCall(identifier);
+                consume(TokenType.SEMICOLON);  // Expect a semicolon after the function call
+                return call;
             }
-        } else if (match("KARYA")) { // Handle function declaration
+        } else if (match(TokenType.KARYA)) { // Handle function declaration
             return parseFunctionDeclaration();
-        } else if (match("RBRACE")) {
+        } else if (match(TokenType.RBRACE)) {
             return null;  // Skip closing brace
         }
         throw new RuntimeException("Unexpected token: " + currentToken());
     }
     
     private ASTNode parseAssignment(String variableName) {
-        consume("OPERATOR");  // Consume '='
+        consume(TokenType.OPERATOR);  // Consume '='
         ASTNode value = parseExpression();  // Parse the right-hand side as an expression
-        consume("SEMICOLON");  // Expect a semicolon at the end of the assignment
+        consume(TokenType.SEMICOLON);  // Expect a semicolon at the end of the assignment
         return new AssignmentNode(variableName, value);  // Return an AssignmentNode
     }
     
     
     
     private ASTNode parseFunctionDeclaration() {
-        consume("KARYA"); // Consume the 'Kaarya' keyword
-        String functionName = consume("IDENTIFIER").getValue(); // Parse the function name (e.g., 'greet')
+        consume(TokenType.KARYA); // Consume the 'Kaarya' keyword
+        String functionName = consumeText(TokenType.IDENTIFIER); // Parse the function name (e.g., 'greet')
 
-        consume("LPAREN"); // Expect '(' for parameters
+        consume(TokenType.LPAREN); // Expect '(' for parameters
         List<String> parameters = new ArrayList<>();
-        if (!match("RPAREN")) { // If there are parameters
-            parameters.add(consume("IDENTIFIER").getValue()); // Parse the first parameter
-            while (match("COMMA")) {
-                consume("COMMA");
-                parameters.add(consume("IDENTIFIER").getValue()); // Handle additional parameters
+        if (!match(TokenType.RPAREN)) { // If there are parameters
+            parameters.add(consumeText(TokenType.IDENTIFIER)); // Parse the first parameter
+            while (match(TokenType.COMMA)) {
+                consume(TokenType.COMMA);
+                parameters.add(consumeText(TokenType.IDENTIFIER)); // Handle additional parameters
             }
         }
-        consume("RPAREN"); // Expect ')'
+        consume(TokenType.RPAREN); // Expect ')'
 
-        consume("LBRACE"); // Expect '{' to start the function body
+        consume(TokenType.LBRACE); // Expect '{' to start the function body
         ASTNode body = parseBlock(); // Parse the function body (statements inside the function)
-        consume("RBRACE"); // Expect '}' to end the function body
+        consume(TokenType.RBRACE); // Expect '}' to end the function body
 
         return new FunctionDeclarationNode(functionName, parameters, body);
     }
 
     // Parse while loop
     private ASTNode parseWhileStatement() {
-        consume("WHILE"); // Consume 'joparyant' or whatever keyword you use for while loops
-        consume("LPAREN"); // Expect '('
+        consume(TokenType.WHILE); // Consume 'joparyant' or whatever keyword you use for while loops
+        consume(TokenType.LPAREN); // Expect '('
         ASTNode condition = parseExpression(); // Parse the loop condition
-        consume("RPAREN"); // Expect ')'
-        consume("LBRACE"); // Expect '{' for the block of statements
+        consume(TokenType.RPAREN); // Expect ')'
+        consume(TokenType.LBRACE); // Expect '{' for the block of statements
         ASTNode body = parseBlock(); // Parse the block of statements inside the loop
-        consume("RBRACE"); // Expect '}' to close the block
+        consume(TokenType.RBRACE); // Expect '}' to close the block
 
         return new WhileStatementNode(condition, body); // Return a new WhileStatementNode
     }
     private ASTNode parseFunctionCall(String functionName) {
-        consume("LPAREN");  // Expect '('
+        consume(TokenType.LPAREN);  // Expect '('
         List<ASTNode> arguments = new ArrayList<>();
         
-        if (!match("RPAREN")) {
+        if (!match(TokenType.RPAREN)) {
             arguments.add(parseExpression());  // Parse the first argument
             
-            while (match("COMMA")) {  // Handle multiple arguments
-                consume("COMMA");
+            while (match(TokenType.COMMA)) {  // Handle multiple arguments
+                consume(TokenType.COMMA);
                 arguments.add(parseExpression());
             }
         }
         
-        consume("RPAREN");  // Expect ')'
-        consume("SEMICOLON");  // Expect a semicolon after the function call
+        consume(TokenType.RPAREN);  // Expect ')'
         return new FunctionCallNode(functionName, arguments);  // Return a function call node
     }
+
+    private ASTNode parseReturnStatement() {
+        consume(TokenType.BOLAV);  // Consume 'Bolav'
+        ASTNode expression = null;
+        if (!match(TokenType.SEMICOLON)) {
+            expression = parseExpression();  // The returned value; a bare Bolav returns none
+        }
+        consume(TokenType.SEMICOLON);
+        return new ReturnStatementNode(expression);
+    }
     
     private ASTNode parseForStatement() {
-        consume("FOR");  // Consume 'Suruwaat'
-        consume("LPAREN");  // Consume '('
+        consume(TokenType.FOR);  // Consume 'Suruwaat'
+        consume(TokenType.LPAREN);  // Consume '('
     
         // Parse initialization (e.g., He aahe i = 0 or i = 0)
         ASTNode initialization = null;
-        if (match("VAR_DECL")) {  // Variable declaration for initialization (He aahe i = 0)
+        if (match(TokenType.VAR_DECL)) {  // Variable declaration for initialization (He aahe i = 0)
             initialization = parseVariableDeclaration();  // Parse variable declaration
-        } else if (match("IDENTIFIER")) {  // Assignment for initialization (i = 0)
-            String variableName = consume("IDENTIFIER").getValue();  // Get the variable name
+        } else if (match(TokenType.IDENTIFIER)) {  // Assignment for initialization (i = 0)
+            String variableName = consumeText(TokenType.IDENTIFIER);  // Get the variable name
             initialization = parseAssignment(variableName);  // Parse the assignment
+        } else {
+            consume(TokenType.SEMICOLON);  // No initialization; both forms above consume their own semicolon
         }
-        consume("SEMICOLON");  // Ensure semicolon is consumed after initialization
     
         // Parse condition (e.g., i < 5)
         ASTNode condition = parseExpression();  // Parse the loop condition
-        consume("SEMICOLON");  // Ensure semicolon is consumed after the condition
+        consume(TokenType.SEMICOLON);  // Ensure semicolon is consumed after the condition
     
         // Parse increment (e.g., i = i + 1)
-        String incrementVariable = consume("IDENTIFIER").getValue();  // Get the increment variable name
-        consume("OPERATOR");  // Consume the '=' operator
+        String incrementVariable = consumeText(TokenType.IDENTIFIER);  // Get the increment variable name
+        consume(TokenType.OPERATOR);  // Consume the '=' operator
         ASTNode incrementValue = parseExpression();  // Parse the expression for the increment
-        consume("RPAREN");  // Ensure ')' is consumed after the increment expression
-        consume("LBRACE");  // Ensure '{' is consumed to start the loop body
+        consume(TokenType.RPAREN);  // Ensure ')' is consumed after the increment expression
+        consume(TokenType.LBRACE);  // Ensure '{' is consumed to start the loop body
     
         // Parse the loop body
         ASTNode body = parseBlock();  // Parse the block as the loop body
     
-        consume("RBRACE");  // Ensure '}' is consumed to close the loop body
+        consume(TokenType.RBRACE);  // Ensure '}' is consumed to close the loop body
     
         return new ForStatementNode(initialization, condition, new AssignmentNode(incrementVariable, incrementValue), body);  // Return the for loop node
     }
@@ -172,27 +198,57 @@ public class MarathiParser {
      
     
     private ASTNode parseExpression() {
+        return parseBinaryExpression(0);
+    }
+
+    // Precedence climbing: parses operands joined by operators that bind at least as tightly as
+    // minPrecedence. Every operator is left-associative, so its right operand may only contain
+    // operators that bind tighter.
+    private ASTNode parseBinaryExpression(int minPrecedence) {
         ASTNode left = parsePrimaryExpression();  // Start by parsing the left-hand side
-    
+
         // Check for binary operators like +, -, *, /
-        while (match("OPERATOR")) {
-            String operator = consume("OPERATOR").getValue();
-            ASTNode right = parsePrimaryExpression();  // Parse the right-hand side
+        Operator operator;
+        while ((operator = currentOperator()) != null && operator.getPrecedence() >= minPrecedence) {
+            currentPosition++;
+            ASTNode right = parseBinaryExpression(operator.getPrecedence() + 1);  // Parse the right-hand side
             left = new BinaryOperationNode(left, operator, right);  // Create a BinaryOperationNode
         }
-    
+
         return left;  // Return the full expression
     }
+
+    // Returns the binary operator at the current position, or null if there is none there
+    private Operator currentOperator() {
+        if (!match(TokenType.OPERATOR)) {
+            return null;
+        }
+        for (Operator operator : Operator.values()) {
+            if (tokens.textEquals(currentPosition, operator.getSymbol())) {
+                return operator;
+            }
+        }
+        return null; // For example the = of an assignment
+    }
     
     private ASTNode parsePrimaryExpression() {
-        if (match("IDENTIFIER")) {
-            return new VariableReferenceNode(consume("IDENTIFIER").getValue());  // Handle variables
-        } else if (match("FLOAT")) {
-            return new FloatNode(consume("FLOAT").getValue());  // Handle floats
-        } else if (match("NUMBER")) {
-            return new NumberNode(consume("NUMBER").getValue());  // Handle integers
-        } else if (match("STRING")) {
-            return new StringNode(consume("STRING").getValue());  // Handle string literals
+        if (match(TokenType.IDENTIFIER)) {
+            String name = consumeText(TokenType.IDENTIFIER);
+            if (match(TokenType.LPAREN)) {
+                return parseFunctionCall(name);  // Handle calls used as values
+            }
+            return new VariableReferenceNode(name);  // Handle variables
+        } else if (match(TokenType.FLOAT)) {
+            return new FloatNode(consumeText(TokenType.FLOAT));  // Handle floats
+        } else if (match(TokenType.NUMBER)) {
+            return new NumberNode(consumeText(TokenType.NUMBER));  // Handle integers
+        } else if (match(TokenType.STRING)) {
+            return new StringNode(consumeText(TokenType.STRING));  // Handle string literals
+        } else if (match(TokenType.LPAREN)) {
+            consume(TokenType.LPAREN);  // Handle parenthesized subexpressions
+            ASTNode expression = parseExpression();
+            consume(TokenType.RPAREN);
+            return expression;
         } else {
             throw new RuntimeException("Unexpected expression: " + currentToken());  // Handle unexpected tokens
         }
@@ -201,86 +257,79 @@ public class MarathiParser {
     
 
     private ASTNode parseVariableDeclaration() {
-        consume("VAR_DECL");
-        String variableName = consume("IDENTIFIER").getValue();
-        consume("OPERATOR"); // Expect '='
+        consume(TokenType.VAR_DECL);
+        String variableName = consumeText(TokenType.IDENTIFIER);
+        consume(TokenType.OPERATOR); // Expect '='
         
         // Handle both NUMBER and FLOAT
         ASTNode value;
-        if (match("NUMBER")) {
-            value = new NumberNode(consume("NUMBER").getValue()); // Parse number
-        } else if (match("FLOAT")) {
-            value = new FloatNode(consume("FLOAT").getValue()); // Parse float
-        } else if (match("STRING")) {
-            value = new StringNode(consume("STRING").getValue()); // Parse string
+        if (match(TokenType.NUMBER)) {
+            value = new NumberNode(consumeText(TokenType.NUMBER)); // Parse number
+        } else if (match(TokenType.FLOAT)) {
+            value = new FloatNode(consumeText(TokenType.FLOAT)); // Parse float
+        } else if (match(TokenType.STRING)) {
+            value = new StringNode(consumeText(TokenType.STRING)); // Parse string
         } else {
             throw new RuntimeException("Expected NUMBER, FLOAT, or STRING but found: " + currentToken());
         }
         
-        consume("SEMICOLON");
+        consume(TokenType.SEMICOLON);
         return new VariableDeclarationNode(variableName, value);
     }
     
     
 
     // private ASTNode parsePrintStatement() {
-    // consume("PRINT");
-    // consume("LPAREN");
+    // consume(TokenType.PRINT);
+    // consume(TokenType.LPAREN);
 
     // // Handle string literals or expressions
     // ASTNode expression;
-    // if (match("STRING")) {
-    // String message = consume("STRING").getValue();
+    // if (match(TokenType.STRING)) {
+    // String message = consumeText(TokenType.STRING);
     // expression = new StringNode(message); // Use StringNode for string literals
     // } else {
     // expression = parseExpression(); // Handle expressions such as a + b or
     // variable references
     // }
 
-    // consume("RPAREN");
-    // consume("SEMICOLON");
+    // consume(TokenType.RPAREN);
+    // consume(TokenType.SEMICOLON);
     // return new PrintStatementNode(expression); // Now returning an ASTNode for
     // the print statement
     // }
     private ASTNode parsePrintStatement() {
-        consume("PRINT"); // Consume the 'Chapa' keyword
-        consume("LPAREN"); // Expect '(' for the print statement
+        consume(TokenType.PRINT); // Consume the 'Chapa' keyword
+        consume(TokenType.LPAREN); // Expect '(' for the print statement
 
         // Parse the full expression (string literal or variable)
         ASTNode expression = parseExpression(); // This handles string literals, variables, or expressions like "Hello "
                                                 // + name
 
-        consume("RPAREN"); // Expect closing parenthesis ')'
-        consume("SEMICOLON"); // Expect semicolon ';' at the end of the print statement
+        consume(TokenType.RPAREN); // Expect closing parenthesis ')'
+        consume(TokenType.SEMICOLON); // Expect semicolon ';' at the end of the print statement
 
         return new PrintStatementNode(expression); // Return the parsed print statement as an AST node
     }
 
     private ASTNode parseIfStatement() {
-        consume("IF");
-        consume("LPAREN");
-        ASTNode condition = parseCondition();
-        consume("RPAREN");
+        consume(TokenType.IF);
+        consume(TokenType.LPAREN);
+        ASTNode condition = parseExpression();
+        consume(TokenType.RPAREN);
 
-        consume("LBRACE"); // Expect '{' to start the block
+        consume(TokenType.LBRACE); // Expect '{' to start the block
         ASTNode thenBranch = parseBlock();
-        consume("RBRACE"); // Expect '}' to close the block
+        consume(TokenType.RBRACE); // Expect '}' to close the block
 
         ASTNode elseBranch = null;
-        if (match("ELSE")) {
-            consume("ELSE");
-            consume("LBRACE"); // Expect '{' to start the else block
+        if (match(TokenType.ELSE)) {
+            consume(TokenType.ELSE);
+            consume(TokenType.LBRACE); // Expect '{' to start the else block
             elseBranch = parseBlock();
-            consume("RBRACE"); // Expect '}' to close the else block
+            consume(TokenType.RBRACE); // Expect '}' to close the else block
         }
 
         return new IfStatementNode(condition, thenBranch, elseBranch);
     }
-
-    private ASTNode parseCondition() {
-        String variableName = consume("IDENTIFIER").getValue();
-        String operator = consume("OPERATOR").getValue();
-        String value = consume("NUMBER").getValue();
-        return new ConditionNode(variableName, operator, value);
-    }
 }
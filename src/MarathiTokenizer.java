@@ -1,57 +1,128 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 public class MarathiTokenizer {
-    private String input;
+    // Marathi keywords, matched by their token type's text
+    private static final TokenType[] KEYWORD_TYPES = {
+            TokenType.VAR_DECL, TokenType.IF, TokenType.ELSE, TokenType.PRINT,
+            TokenType.WHILE, TokenType.FOR, TokenType.KARYA, TokenType.BOLAV };
+    private static final KeywordTrie KEYWORD_TRIE = new KeywordTrie(keywordTexts());
+    private static final int KEYWORD_LOOKAHEAD = 16; // Longer than any keyword
+
+    // Initial size of the character window when reading from a Reader
+    private static final int WINDOW_SIZE = 8192;
+
+    private char[] input;
+    private int length;   // Number of valid characters in input
     private int position;
 
+    // Source of further characters when the input is read incrementally, null once exhausted
+    private Reader reader;
+    private boolean windowed;
+
+    // Location of the text of the last scanned token
+    private int tokenStart;
+    private int tokenLength;
+
     public MarathiTokenizer(String input) {
-        this.input = input;
+        this.input = input.toCharArray();
+        this.length = this.input.length;
         this.position = 0;
     }
 
-    public Token nextToken() {
-        skipWhitespace();
+    // Tokenizes characters pulled from a reader through a small window that only holds the current token
+    public MarathiTokenizer(Reader reader) {
+        this.input = new char[WINDOW_SIZE];
+        this.length = 0;
+        this.position = 0;
+        this.reader = reader;
+        this.windowed = true;
+    }
 
-        if (position >= input.length()) {
-            return null;
+    private static String[] keywordTexts() {
+        String[] texts = new String[KEYWORD_TYPES.length];
+        for (int i = 0; i < texts.length; i++) {
+            texts[i] = KEYWORD_TYPES[i].getFixedText();
         }
+        return texts;
+    }
 
-        String currentSubstring = input.substring(position).toLowerCase();
-        char currentChar = input.charAt(position);
+    // Length of the keyword the tokenizer would read at position, or -1 if there is none. For
+    // tools that scan source text themselves, such as the SyntaxHighlighter.
+    public static int keywordLength(char[] text, int position, int limit) {
+        int keyword = KEYWORD_TRIE.match(text, position, limit);
+        return keyword >= 0 ? KEYWORD_TRIE.length(keyword) : -1;
+    }
 
-        // Handle Marathi keywords and symbols
-        if (input.startsWith("He aahe", position)) {
-            position += "He aahe".length();
-            return new Token("VAR_DECL", "He aahe");
+    // Reads more characters into the window, discarding everything before the current token.
+    // Returns false when the input is exhausted.
+    private boolean fill() {
+        if (reader == null) {
+            return false;
         }
-        if (input.startsWith("Jar", position)) {
-            position += "Jar".length();
-            return new Token("IF", "Jar");
+        if (tokenStart > 0) {
+            System.arraycopy(input, tokenStart, input, 0, length - tokenStart);
+            length -= tokenStart;
+            position -= tokenStart;
+            tokenStart = 0;
         }
-        if (input.startsWith("Nahitar", position)) {
-            position += "Nahitar".length();
-            return new Token("ELSE", "Nahitar");
+        if (input.length - length < 2) {
+            input = Arrays.copyOf(input, input.length * 2); // A single token is larger than the window
         }
-        if (input.startsWith("Chapa", position)) {
-            position += "Chapa".length();
-            return new Token("PRINT", "Chapa");
+        try {
+            int read;
+            do {
+                read = reader.read(input, length, input.length - length);
+            } while (read == 0);
+            if (read < 0) {
+                reader = null;
+                return false;
+            }
+            length += read;
+            return true;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
-        if (input.startsWith("joparyant", position)) {
-            position += "joparyant".length();
-            return new Token("WHILE", "joparyant");
+    }
+
+    // Makes sure count characters from the current position are loaded, if the input has them
+    private void ensure(int count) {
+        while (length - position < count && fill()) {
+            // Keep reading
         }
-        if (input.startsWith("Suruwaat", position)) {
-            position += "Suruwaat".length();
-            return new Token("FOR", "Suruwaat");
+    }
+
+    private boolean hasMore() {
+        return position < length || fill();
+    }
+
+    public Token nextToken() {
+        TokenType type = scan();
+        if (type == null) {
+            return null;
         }
-        if (input.startsWith("Karya", position)) {
-            position += "Karya".length();
-            return new Token("KARYA", "Karya");
+        return new Token(type, new String(input, tokenStart, tokenLength));
+    }
+
+    // Scans the next token and returns its type, or null at the end of the input
+    private TokenType scan() {
+        skipWhitespace();
+        ensure(KEYWORD_LOOKAHEAD);
+
+        if (position >= length) {
+            return null;
         }
-        if (input.startsWith("Bolav", position)) {
-            position += "Bolav".length();
-            return new Token("BOLAV", "Bolav");
+
+        char currentChar = input[position];
+
+        // Handle Marathi keywords
+        int keyword = KEYWORD_TRIE.match(input, position, length);
+        if (keyword >= 0) {
+            return token(KEYWORD_TYPES[keyword], KEYWORD_TRIE.length(keyword));
         }
 
         // Handle string literals
@@ -60,46 +131,39 @@ public class MarathiTokenizer {
         }
 
         // Handle multi-character operators (==, !=, <=, >=)
-        if (currentSubstring.startsWith("==") || currentSubstring.startsWith("!=") ||
-                currentSubstring.startsWith("<=") || currentSubstring.startsWith(">=")) {
-            position += 2;
-            return new Token("OPERATOR", currentSubstring.substring(0, 2));
+        if (position + 1 < length && input[position + 1] == '='
+                && (currentChar == '=' || currentChar == '!' || currentChar == '<' || currentChar == '>')) {
+            return token(TokenType.OPERATOR, 2);
         }
 
-        // Handle single-character operators (<, >, =, +, -, *, /)
-        if ("<>=+-*/".indexOf(currentChar) != -1) {
-            position++;
-            return new Token("OPERATOR", String.valueOf(currentChar));
-        }
+        switch (currentChar) {
+            // Handle single-character operators (<, >, =, +, -, *, /)
+            case '<':
+            case '>':
+            case '=':
+            case '+':
+            case '-':
+            case '*':
+            case '/':
+                return token(TokenType.OPERATOR, 1);
 
-        // Handle parentheses and braces
-        if (currentChar == '(') {
-            position++;
-            return new Token("LPAREN", "(");
-        }
-        if (currentChar == ')') {
-            position++;
-            return new Token("RPAREN", ")");
-        }
-        if (currentChar == '{') {
-            position++;
-            return new Token("LBRACE", "{");
-        }
-        if (currentChar == '}') {
-            position++;
-            return new Token("RBRACE", "}");
-        }
+            // Handle parentheses and braces
+            case '(':
+                return token(TokenType.LPAREN, 1);
+            case ')':
+                return token(TokenType.RPAREN, 1);
+            case '{':
+                return token(TokenType.LBRACE, 1);
+            case '}':
+                return token(TokenType.RBRACE, 1);
 
-        // Handle semicolon
-        if (currentChar == ';') {
-            position++;
-            return new Token("SEMICOLON", ";");
-        }
-
-        // Handle comma
-        if (currentChar == ',') {
-            position++;
-            return new Token("COMMA", ",");
+            // Handle semicolon and comma
+            case ';':
+                return token(TokenType.SEMICOLON, 1);
+            case ',':
+                return token(TokenType.COMMA, 1);
+            default:
+                break;
         }
 
         // Handle numbers (including floats)
@@ -116,18 +180,26 @@ public class MarathiTokenizer {
         throw new RuntimeException("Unexpected character: " + currentChar);
     }
 
+    private TokenType token(TokenType type, int tokenLength) {
+        this.tokenLength = tokenLength;
+        position += tokenLength;
+        return type;
+    }
+
     private void skipWhitespace() {
-        while (position < input.length() && Character.isWhitespace(input.charAt(position))) {
-            position++;
-        }
+        do {
+            while (position < length && Character.isWhitespace(input[position])) {
+                position++;
+            }
+            tokenStart = position;
+        } while (position == length && fill());
     }
 
-    private Token readNumber() {
-        int start = position;
+    private TokenType readNumber() {
         boolean isFloat = false;
 
-        while (position < input.length() && (Character.isDigit(input.charAt(position)) || input.charAt(position) == '.')) {
-            if (input.charAt(position) == '.') {
+        while (hasMore() && (Character.isDigit(input[position]) || input[position] == '.')) {
+            if (input[position] == '.') {
                 if (isFloat) {
                     throw new RuntimeException("Invalid float format.");
                 }
@@ -136,37 +208,68 @@ public class MarathiTokenizer {
             position++;
         }
 
-        String number = input.substring(start, position);
-        return new Token(isFloat ? "FLOAT" : "NUMBER", number);
+        tokenLength = position - tokenStart;
+        return isFloat ? TokenType.FLOAT : TokenType.NUMBER;
     }
 
-    private Token readIdentifier() {
-        int start = position;
-
+    private TokenType readIdentifier() {
         // Variable names can include letters, digits, and underscores
-        while (position < input.length() && (Character.isLetterOrDigit(input.charAt(position)) || input.charAt(position) == '_')) {
+        while (hasMore() && (Character.isLetterOrDigit(input[position]) || input[position] == '_')) {
             position++;
         }
 
-        String identifier = input.substring(start, position);
-        return new Token("IDENTIFIER", identifier);
+        tokenLength = position - tokenStart;
+        return TokenType.IDENTIFIER;
     }
 
-    private Token readString() {
+    private TokenType readString() {
         position++; // Skip the opening quote
-        int start = position;
+        tokenStart = position; // The token text excludes the quotes
 
-        while (position < input.length() && input.charAt(position) != '"') {
+        while (hasMore() && input[position] != '"') {
             position++;
         }
 
-        if (position >= input.length()) {
+        if (position >= length) {
             throw new RuntimeException("Unterminated string literal");
         }
 
-        String stringLiteral = input.substring(start, position);
+        tokenLength = position - tokenStart;
         position++; // Skip the closing quote
-        return new Token("STRING", stringLiteral);
+        return TokenType.STRING;
+    }
+
+    // Tokenizes the whole input into a packed stream that refers back to the source characters
+    public TokenStream tokenizeStream() {
+        while (fill()) {
+            // Token offsets refer into the source, so all of it has to be loaded
+        }
+        TokenStream stream = new TokenStream(input);
+        TokenType type;
+        while ((type = scan()) != null) {
+            stream.add(type, tokenStart, tokenLength);
+        }
+        return stream;
+    }
+
+    // Returns a stream that tokenizes on demand as the parser asks for tokens
+    public TokenStream stream(int lookahead) {
+        return new TokenStream(this, windowed ? null : input, lookahead);
+    }
+
+    // Scans one token into the stream, returning false at the end of the input
+    public boolean pull(TokenStream stream) {
+        TokenType type = scan();
+        if (type == null) {
+            return false;
+        }
+        if (windowed) {
+            // The window moves as more input is read, so the text has to be copied out now
+            stream.add(type, type.getFixedText() != null ? null : new String(input, tokenStart, tokenLength));
+        } else {
+            stream.add(type, tokenStart, tokenLength);
+        }
+        return true;
     }
 
     public List<Token> tokenize() {
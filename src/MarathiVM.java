@@ -0,0 +1,299 @@
+// MarathiVM.java
+import java.util.Arrays;
+
+// Runs programs compiled by the BytecodeCompiler with a single switch-dispatch loop.
+// Values live on one stack as tag/bits pairs (see Values): each call frame holds the function's
+// locals, starting with its arguments, followed by its operand stack. Calls and returns switch
+// frames inside the loop instead of recursing in Java.
+public class MarathiVM implements MarathiEngine {
+    private AstOptimizer optimizer = new AstOptimizer();
+    private Resolver resolver = new Resolver();
+    private BytecodeCompiler compiler = new BytecodeCompiler();
+
+    // Global variables, indexed by the slots the Resolver assigned
+    private Object[] globalTags = new Object[16];
+    private long[] globalBits = new long[16];
+
+    // Functions currently declared, indexed by the compiler's function ids
+    private BytecodeFunction[] functions = new BytecodeFunction[16];
+
+    // Value stack shared by all frames
+    private Object[] stackTags = new Object[1024];
+    private long[] stackBits = new long[1024];
+
+    // Saved state of the callers of the running function
+    private BytecodeFunction[] callerFunctions = new BytecodeFunction[64];
+    private int[] callerPcs = new int[64];
+    private int[] callerFramePointers = new int[64];
+
+    // Scratch register for operators that fall back to Operators.apply
+    private ValueRegister result = new ValueRegister();
+
+    // Where Chapa output goes
+    private OutputSink outputSink = new StringOutputSink();
+
+    @Override
+    public void interpret(ASTNode node) {
+        node = optimizer.optimize(node);
+        resolver.resolve(node);
+        prepareAndRun(node);
+    }
+
+    // Every function body is compiled to bytecode, and so decoded from the file, before the program starts
+    @Override
+    public void interpret(CompiledProgram program) {
+        resolver.declareGlobals(program.getGlobalNames());
+        prepareAndRun(program.getProgram());
+    }
+
+    private void prepareAndRun(ASTNode node) {
+        if (resolver.getGlobalCount() > globalTags.length) {
+            int capacity = Math.max(resolver.getGlobalCount(), globalTags.length * 2);
+            globalTags = Arrays.copyOf(globalTags, capacity);
+            globalBits = Arrays.copyOf(globalBits, capacity);
+        }
+        run(compiler.compileProgram(node));
+    }
+
+    private void run(BytecodeFunction entry) {
+        BytecodeFunction function = entry;
+        int[] code = function.getCode();
+        Object[] constantTags = function.getConstantTags();
+        long[] constantBits = function.getConstantBits();
+        int pc = 0;
+        int fp = 0; // Start of the current frame
+        int sp = 0; // First free stack slot
+        int depth = 0; // Number of callers
+        ensureStack(function.getMaxStack());
+
+        while (true) {
+            switch (code[pc++]) {
+                case Opcodes.CONST: {
+                    int index = code[pc++];
+                    stackTags[sp] = constantTags[index];
+                    stackBits[sp++] = constantBits[index];
+                    break;
+                }
+                case Opcodes.UNDEFINED:
+                    stackTags[sp++] = null;
+                    break;
+                case Opcodes.LOAD_LOCAL: {
+                    int slot = fp + code[pc++];
+                    int name = code[pc++];
+                    Object tag = stackTags[slot];
+                    if (tag == null) {
+                        throw new RuntimeException("Undefined variable: " + function.getNames()[name]);
+                    }
+                    stackTags[sp] = tag;
+                    stackBits[sp++] = stackBits[slot];
+                    break;
+                }
+                case Opcodes.STORE_LOCAL: {
+                    int slot = fp + code[pc++];
+                    sp--;
+                    stackTags[slot] = stackTags[sp];
+                    stackBits[slot] = stackBits[sp];
+                    break;
+                }
+                case Opcodes.LOAD_GLOBAL: {
+                    int slot = code[pc++];
+                    int name = code[pc++];
+                    Object tag = globalTags[slot];
+                    if (tag == null) {
+                        throw new RuntimeException("Undefined variable: " + function.getNames()[name]);
+                    }
+                    stackTags[sp] = tag;
+                    stackBits[sp++] = globalBits[slot];
+                    break;
+                }
+                case Opcodes.STORE_GLOBAL: {
+                    int slot = code[pc++];
+                    sp--;
+                    globalTags[slot] = stackTags[sp];
+                    globalBits[slot] = stackBits[sp];
+                    break;
+                }
+                case Opcodes.ADD:
+                case Opcodes.SUB:
+                case Opcodes.MUL:
+                case Opcodes.DIV:
+                case Opcodes.LT:
+                case Opcodes.GT:
+                case Opcodes.LE:
+                case Opcodes.GE:
+                case Opcodes.EQ:
+                case Opcodes.NE: {
+                    int opcode = code[pc - 1];
+                    sp--;
+                    Object leftTag = stackTags[sp - 1];
+                    Object rightTag = stackTags[sp];
+                    if (leftTag == Values.INT && rightTag == Values.INT) {
+                        // Fast path for the common int-int case
+                        int left = (int) stackBits[sp - 1];
+                        int right = (int) stackBits[sp];
+                        switch (opcode) {
+                            case Opcodes.ADD:
+                                stackBits[sp - 1] = left + right;
+                                break;
+                            case Opcodes.SUB:
+                                stackBits[sp - 1] = left - right;
+                                break;
+                            case Opcodes.MUL:
+                                stackBits[sp - 1] = left * right;
+                                break;
+                            case Opcodes.DIV:
+                                if (right == 0) {
+                                    throw new RuntimeException("Division by zero error");
+                                }
+                                stackBits[sp - 1] = left / right;
+                                break;
+                            default:
+                                stackTags[sp - 1] = Values.BOOL;
+                                stackBits[sp - 1] = Values.bits(Operators.test(opcode, Integer.compare(left, right)));
+                                break;
+                        }
+                    } else {
+                        Operators.apply(leftTag, stackBits[sp - 1], rightTag, stackBits[sp], opcode, result);
+                        stackTags[sp - 1] = result.getTag();
+                        stackBits[sp - 1] = result.getBits();
+                    }
+                    break;
+                }
+                case Opcodes.CONCAT: {
+                    // As in MarathiInterpreter.evaluateConcat
+                    int count = code[pc++];
+                    StringBuilder builder = new StringBuilder(code[pc++]);
+                    sp -= count;
+                    Rope head = stackTags[sp] instanceof Rope ? (Rope) stackTags[sp] : null;
+                    if (head == null) {
+                        Values.appendTo(builder, stackTags[sp], stackBits[sp]);
+                    }
+                    for (int i = 1; i < count; i++) {
+                        Values.appendTo(builder, stackTags[sp + i], stackBits[sp + i]);
+                    }
+                    stackTags[sp] = head != null ? Rope.concat(head, builder.toString()) : builder.toString();
+                    stackBits[sp++] = 0;
+                    break;
+                }
+                case Opcodes.JUMP:
+                    if (code[pc] < pc) {
+                        ProgramInterruptedException.check(); // A loop going round again
+                    }
+                    pc = code[pc];
+                    break;
+                case Opcodes.JUMP_IF_FALSE: {
+                    sp--;
+                    if (stackTags[sp] != Values.BOOL) {
+                        throw new RuntimeException(
+                                "Condition must be a boolean but was " + Values.typeName(stackTags[sp]));
+                    }
+                    pc = stackBits[sp] != 0 ? pc + 1 : code[pc];
+                    break;
+                }
+                case Opcodes.PRINT:
+                    sp--;
+                    outputSink.print(stackTags[sp], stackBits[sp]);
+                    break;
+                case Opcodes.POP:
+                    sp--;
+                    break;
+                case Opcodes.REQUIRE_VALUE: {
+                    int id = code[pc++];
+                    if (stackTags[sp - 1] == null) {
+                        throw new RuntimeException("Function " + compiler.getFunctionName(id) + " did not return a value");
+                    }
+                    break;
+                }
+                case Opcodes.DECLARE_FUNCTION: {
+                    BytecodeFunction declared = function.getFunctions()[code[pc++]];
+                    if (declared.getId() >= functions.length) {
+                        functions = Arrays.copyOf(functions, Math.max(functions.length * 2, declared.getId() + 1));
+                    }
+                    functions[declared.getId()] = declared;
+                    break;
+                }
+                case Opcodes.CALL: {
+                    ProgramInterruptedException.check();
+                    int id = code[pc++];
+                    int argumentCount = code[pc++];
+                    BytecodeFunction callee = id < functions.length ? functions[id] : null;
+                    if (callee == null) {
+                        throw new RuntimeException("Undefined function: " + compiler.getFunctionName(id));
+                    }
+                    if (argumentCount != callee.getParameterCount()) {
+                        throw new RuntimeException("Function " + callee.getName() + " expects "
+                                + callee.getParameterCount() + " arguments but got " + argumentCount);
+                    }
+
+                    // Save the caller
+                    if (depth == callerPcs.length) {
+                        int capacity = depth * 2;
+                        callerFunctions = Arrays.copyOf(callerFunctions, capacity);
+                        callerPcs = Arrays.copyOf(callerPcs, capacity);
+                        callerFramePointers = Arrays.copyOf(callerFramePointers, capacity);
+                    }
+                    callerFunctions[depth] = function;
+                    callerPcs[depth] = pc;
+                    callerFramePointers[depth] = fp;
+                    depth++;
+
+                    // The arguments already on the stack become the first locals of the new frame
+                    fp = sp - argumentCount;
+                    sp = fp + callee.getFrameSize();
+                    ensureStack(sp + callee.getMaxStack());
+                    Arrays.fill(stackTags, fp + argumentCount, sp, null);
+
+                    function = callee;
+                    code = function.getCode();
+                    constantTags = function.getConstantTags();
+                    constantBits = function.getConstantBits();
+                    pc = 0;
+                    break;
+                }
+                case Opcodes.RETURN: {
+                    sp--;
+                    Object returnTag = stackTags[sp];
+                    long returnBits = stackBits[sp];
+                    if (depth == 0) {
+                        return;
+                    }
+                    Arrays.fill(stackTags, fp, sp, null);
+                    sp = fp;
+
+                    depth--;
+                    function = callerFunctions[depth];
+                    callerFunctions[depth] = null;
+                    pc = callerPcs[depth];
+                    fp = callerFramePointers[depth];
+                    code = function.getCode();
+                    constantTags = function.getConstantTags();
+                    constantBits = function.getConstantBits();
+
+                    stackTags[sp] = returnTag;
+                    stackBits[sp++] = returnBits;
+                    break;
+                }
+                default:
+                    throw new RuntimeException("Unknown opcode " + code[pc - 1] + " in " + function.getName());
+            }
+        }
+    }
+
+    private void ensureStack(int size) {
+        if (size > stackTags.length) {
+            int capacity = Math.max(stackTags.length * 2, size);
+            stackTags = Arrays.copyOf(stackTags, capacity);
+            stackBits = Arrays.copyOf(stackBits, capacity);
+        }
+    }
+
+    @Override
+    public OutputSink getOutputSink() {
+        return outputSink;
+    }
+
+    @Override
+    public void setOutputSink(OutputSink outputSink) {
+        this.outputSink = outputSink;
+    }
+}
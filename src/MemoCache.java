@@ -0,0 +1,123 @@
+// MemoCache.java
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Results of one pure function by argument values, evicting the least recently used entry once it
+// holds capacity entries. Counts hits, misses and evictions so it can be seen whether memoizing the
+// function pays off.
+public class MemoCache {
+    private final String functionName;
+    private final int capacity;
+    private final LinkedHashMap<Key, Result> entries;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public MemoCache(String functionName, int capacity) {
+        this.functionName = functionName;
+        this.capacity = capacity;
+        this.entries = new LinkedHashMap<Key, Result>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Result> eldest) {
+                if (size() > MemoCache.this.capacity) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    // The argument values of a call, read from count stack slots starting at base. Strings are
+    // compared by their text, whether or not they are ropes.
+    static final class Key {
+        private final Object[] tags;
+        private final long[] bits;
+        private final int hash;
+
+        Key(CallStack stack, int base, int count) {
+            tags = new Object[count];
+            bits = new long[count];
+            for (int i = 0; i < count; i++) {
+                Object tag = stack.getTag(base + i);
+                tags[i] = tag instanceof Rope ? tag.toString() : tag;
+                bits[i] = stack.getBits(base + i);
+            }
+            hash = 31 * Arrays.hashCode(tags) + Arrays.hashCode(bits);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) other;
+            return hash == key.hash && Arrays.equals(bits, key.bits) && Arrays.equals(tags, key.tags);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static final class Result {
+        final Object tag;
+        final long bits;
+
+        Result(Object tag, long bits) {
+            this.tag = tag;
+            this.bits = bits;
+        }
+    }
+
+    // Loads the cached result for key into result and returns true, or returns false on a miss
+    public boolean lookup(Key key, ValueRegister result) {
+        Result cached = entries.get(key);
+        if (cached == null) {
+            misses++;
+            return false;
+        }
+        hits++;
+        result.set(cached.tag, cached.bits);
+        return true;
+    }
+
+    public void store(Key key, Object tag, long bits) {
+        entries.put(key, new Result(tag, bits));
+    }
+
+    // Drops the cached results but keeps the counters
+    public void clear() {
+        entries.clear();
+    }
+
+    public String getFunctionName() {
+        return functionName;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    public long getEvictions() {
+        return evictions;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    @Override
+    public String toString() {
+        long calls = hits + misses;
+        return functionName + ": " + hits + " hits, " + misses + " misses ("
+                + (calls == 0 ? 0 : hits * 100 / calls) + "% hit rate), " + evictions + " evictions, " + size()
+                + "/" + capacity + " entries";
+    }
+}
@@ -0,0 +1,36 @@
+// Opcodes.java
+// Instruction set of the MarathiVM. Each instruction is an opcode followed by its operands in the
+// code array; the comments list the operands and the effect on the operand stack.
+public final class Opcodes {
+    public static final int CONST = 0;            // constant index        -> value
+    public static final int UNDEFINED = 1;        //                       -> undefined
+    public static final int LOAD_LOCAL = 2;       // slot, name index      -> value
+    public static final int STORE_LOCAL = 3;      // slot                  value ->
+    public static final int LOAD_GLOBAL = 4;      // slot, name index      -> value
+    public static final int STORE_GLOBAL = 5;     // slot                  value ->
+
+    // Binary operators (see Operator): left, right -> result
+    public static final int ADD = 6;
+    public static final int SUB = 7;
+    public static final int MUL = 8;
+    public static final int DIV = 9;
+    public static final int LT = 10;
+    public static final int GT = 11;
+    public static final int LE = 12;
+    public static final int GE = 13;
+    public static final int EQ = 14;
+    public static final int NE = 15;
+
+    public static final int JUMP = 16;            // target
+    public static final int JUMP_IF_FALSE = 17;   // target                boolean ->
+    public static final int PRINT = 18;           //                       value ->
+    public static final int POP = 19;             //                       value ->
+    public static final int DECLARE_FUNCTION = 20; // nested function index
+    public static final int CALL = 21;            // function id, argc     arguments -> result
+    public static final int RETURN = 22;          //                       value -> (to the caller)
+    public static final int CONCAT = 23;          // count, capacity       values -> string
+    public static final int REQUIRE_VALUE = 24;   // function id           value -> value (fails if undefined)
+
+    private Opcodes() {
+    }
+}
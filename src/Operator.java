@@ -0,0 +1,57 @@
+// Operator.java
+// The binary operators, resolved from their source text once, at parse time. Higher precedence binds
+// tighter; all operators are left-associative.
+public enum Operator {
+    // In the same order as the opcodes Opcodes.ADD..NE
+    ADD("+", 3),
+    SUB("-", 3),
+    MUL("*", 4),
+    DIV("/", 4),
+    LT("<", 2),
+    GT(">", 2),
+    LE("<=", 2),
+    GE(">=", 2),
+    EQ("==", 1),
+    NE("!=", 1);
+
+    private static final Operator[] VALUES = values();
+
+    private final String symbol;
+    private final int precedence;
+
+    Operator(String symbol, int precedence) {
+        this.symbol = symbol;
+        this.precedence = precedence;
+    }
+
+    public String getSymbol() {
+        return symbol;
+    }
+
+    public int getPrecedence() {
+        return precedence;
+    }
+
+    // The MarathiVM instruction for this operator
+    public int getOpcode() {
+        return Opcodes.ADD + ordinal();
+    }
+
+    public boolean isComparison() {
+        return precedence <= LT.precedence;
+    }
+
+    // Returns the operator written as symbol, or null if there is none
+    public static Operator forSymbol(String symbol) {
+        for (Operator operator : VALUES) {
+            if (operator.symbol.equals(symbol)) {
+                return operator;
+            }
+        }
+        return null;
+    }
+
+    public static Operator forOpcode(int opcode) {
+        return VALUES[opcode - Opcodes.ADD];
+    }
+}
@@ -0,0 +1,156 @@
+// Operators.java
+// The semantics of the binary operators, shared by the interpreter and the AstOptimizer
+// so that folded constants always match what evaluation would have produced.
+public final class Operators {
+    private Operators() {
+    }
+
+    // Applies the operator with the given opcode (see Operator.getOpcode) to two values and leaves the
+    // outcome in result
+    public static void apply(Object leftTag, long leftBits, Object rightTag, long rightBits, int opcode,
+            ValueRegister result) {
+        // Handle comparisons of strings and booleans
+        if (opcode >= Opcodes.LT && !(isNumber(leftTag) && isNumber(rightTag))) {
+            result.setBoolean(compare(leftTag, leftBits, rightTag, rightBits, opcode));
+            return;
+        }
+
+        // Handle string concatenation
+        if (!Values.isPrimitive(leftTag) || !Values.isPrimitive(rightTag)) {
+            concat(leftTag, leftBits, rightTag, rightBits, result);
+            return;
+        }
+
+        // Handle mixed-type arithmetic (integers and floats)
+        if (leftTag == Values.INT && rightTag == Values.INT) {
+            apply((int) leftBits, (int) rightBits, opcode, result);
+        } else {
+            apply(Values.asDouble(leftTag, leftBits), Values.asDouble(rightTag, rightBits), opcode, result);
+        }
+    }
+
+    private static boolean isNumber(Object tag) {
+        return tag == Values.INT || tag == Values.DOUBLE;
+    }
+
+    // Compares two values that are not both numbers. Strings compare by their text and booleans by
+    // equality; values of different types are never equal and can't be ordered.
+    private static boolean compare(Object leftTag, long leftBits, Object rightTag, long rightBits, int opcode) {
+        boolean ordering = opcode != Opcodes.EQ && opcode != Opcodes.NE;
+        if (leftTag instanceof CharSequence && rightTag instanceof CharSequence) {
+            return test(opcode, leftTag.toString().compareTo(rightTag.toString()));
+        }
+        if (leftTag == Values.BOOL && rightTag == Values.BOOL && !ordering) {
+            return test(opcode, Long.compare(leftBits, rightBits));
+        }
+        if (leftTag != rightTag && !ordering && !(leftTag instanceof CharSequence && rightTag instanceof CharSequence)) {
+            return opcode == Opcodes.NE;
+        }
+        throw new RuntimeException("Cannot compare " + Values.typeName(leftTag) + " with " + Values.typeName(rightTag)
+                + " using " + Operator.forOpcode(opcode).getSymbol());
+    }
+
+    // Turns the result of a three-way comparison into the outcome of a comparison opcode
+    public static boolean test(int opcode, int comparison) {
+        switch (opcode) {
+            case Opcodes.LT:
+                return comparison < 0;
+            case Opcodes.GT:
+                return comparison > 0;
+            case Opcodes.LE:
+                return comparison <= 0;
+            case Opcodes.GE:
+                return comparison >= 0;
+            case Opcodes.EQ:
+                return comparison == 0;
+            case Opcodes.NE:
+                return comparison != 0;
+            default:
+                throw new RuntimeException("Unsupported operator: " + Operator.forOpcode(opcode).getSymbol());
+        }
+    }
+
+    // Any other operator with a string operand joins the text of both operands. Long results are built
+    // lazily as a Rope.
+    public static void concat(Object leftTag, long leftBits, Object rightTag, long rightBits, ValueRegister result) {
+        result.set(Rope.concat(Values.text(leftTag, leftBits), Values.text(rightTag, rightBits)), 0);
+    }
+
+    // Helper method to perform binary operations for integers
+    public static void apply(int left, int right, int opcode, ValueRegister result) {
+        switch (opcode) {
+            case Opcodes.ADD:
+                result.setInt(left + right);
+                break;
+            case Opcodes.SUB:
+                result.setInt(left - right);
+                break;
+            case Opcodes.MUL:
+                result.setInt(left * right);
+                break;
+            case Opcodes.DIV:
+                if (right == 0) throw new RuntimeException("Division by zero error");
+                result.setInt(left / right);
+                break;
+            case Opcodes.LT:
+                result.setBoolean(left < right);
+                break;
+            case Opcodes.GT:
+                result.setBoolean(left > right);
+                break;
+            case Opcodes.LE:
+                result.setBoolean(left <= right);
+                break;
+            case Opcodes.GE:
+                result.setBoolean(left >= right);
+                break;
+            case Opcodes.EQ:
+                result.setBoolean(left == right);
+                break;
+            case Opcodes.NE:
+                result.setBoolean(left != right);
+                break;
+            default:
+                throw new RuntimeException("Unsupported operator: " + Operator.forOpcode(opcode).getSymbol());
+        }
+    }
+
+    // Helper method to perform binary operations for doubles
+    public static void apply(double left, double right, int opcode, ValueRegister result) {
+        switch (opcode) {
+            case Opcodes.ADD:
+                result.setDouble(left + right);
+                break;
+            case Opcodes.SUB:
+                result.setDouble(left - right);
+                break;
+            case Opcodes.MUL:
+                result.setDouble(left * right);
+                break;
+            case Opcodes.DIV:
+                if (right == 0) throw new RuntimeException("Division by zero error");
+                result.setDouble(left / right);
+                break;
+            case Opcodes.LT:
+                result.setBoolean(left < right);
+                break;
+            case Opcodes.GT:
+                result.setBoolean(left > right);
+                break;
+            case Opcodes.LE:
+                result.setBoolean(left <= right);
+                break;
+            case Opcodes.GE:
+                result.setBoolean(left >= right);
+                break;
+            case Opcodes.EQ:
+                result.setBoolean(left == right);
+                break;
+            case Opcodes.NE:
+                result.setBoolean(left != right);
+                break;
+            default:
+                throw new RuntimeException("Unsupported operator: " + Operator.forOpcode(opcode).getSymbol());
+        }
+    }
+}
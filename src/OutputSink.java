@@ -0,0 +1,45 @@
+// OutputSink.java
+// Where Chapa output goes. Each print writes one line. Values are formatted into a reused line
+// buffer, so printing a number doesn't create a String; subclasses decide what happens to the line.
+public abstract class OutputSink {
+    private StringBuilder line = new StringBuilder();
+
+    // Prints a value given as tag and bits (see Values), formatted as Values.toString would
+    public void print(Object tag, long bits) {
+        line.setLength(0);
+        Values.appendTo(line, tag, bits);
+        writeLine(line);
+    }
+
+    public void print(int value) {
+        line.setLength(0);
+        writeLine(line.append(value));
+    }
+
+    public void print(double value) {
+        line.setLength(0);
+        writeLine(line.append(value));
+    }
+
+    public void print(boolean value) {
+        line.setLength(0);
+        writeLine(line.append(value));
+    }
+
+    public void print(String value) {
+        line.setLength(0);
+        writeLine(line.append(value));
+    }
+
+    // Takes one formatted line, without a line terminator. The builder is reused after this returns.
+    protected abstract void writeLine(StringBuilder line);
+
+    // Pushes out anything still buffered
+    public void flush() {
+    }
+
+    // The output this sink has kept, one line per print, or "" if it passes output on without keeping it
+    public String getText() {
+        return "";
+    }
+}
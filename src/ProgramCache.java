@@ -0,0 +1,174 @@
+// ProgramCache.java
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.function.Supplier;
+
+// Parsed programs by a SHA-256 hash of their source, so running unchanged source again skips the
+// tokenizer and the parser. Programs are kept in memory up to a total source size, least recently
+// used first out, and optionally in a directory as well, where they outlive the process.
+//
+// A cached tree is run again and again. That is safe because engines never change a parsed tree:
+// the AstOptimizer builds a new one, and that is what gets resolved and run.
+public class ProgramCache {
+    // Start of every file in the cache directory, followed by the parse time and the program
+    private static final int FILE_MAGIC = 0x4d524c50; // "MRLP"
+    private static final int FILE_VERSION = 1;
+    private static final int HEADER_BYTES = 16;
+
+    private final long maxSourceBytes;
+    private final Path directory; // null to keep programs in memory only
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long sourceBytes; // Total source size of the programs in entries
+
+    private long hits;
+    private long diskHits;
+    private long misses;
+    private long savedNanos; // Parse time of the programs found, less the time spent finding them
+
+    private static final class Entry {
+        final ASTNode program;
+        final long sourceBytes;
+        final long parseNanos;
+
+        Entry(ASTNode program, long sourceBytes, long parseNanos) {
+            this.program = program;
+            this.sourceBytes = sourceBytes;
+            this.parseNanos = parseNanos;
+        }
+    }
+
+    public ProgramCache(long maxSourceBytes, Path directory) {
+        this.maxSourceBytes = maxSourceBytes;
+        this.directory = directory;
+    }
+
+    // Returns the program for source, from the cache if possible and otherwise from parser, which
+    // must parse exactly that source
+    public synchronized ASTNode get(byte[] source, Supplier<ASTNode> parser) {
+        long start = System.nanoTime();
+        String key = hash(source);
+
+        Entry entry = entries.get(key);
+        if (entry != null) {
+            hits++;
+            savedNanos += entry.parseNanos - (System.nanoTime() - start);
+            return entry.program;
+        }
+
+        entry = load(key, source.length);
+        if (entry != null) {
+            diskHits++;
+            savedNanos += entry.parseNanos - (System.nanoTime() - start);
+        } else {
+            misses++;
+            long parseStart = System.nanoTime();
+            ASTNode program = parser.get();
+            entry = new Entry(program, source.length, System.nanoTime() - parseStart);
+            save(key, entry);
+        }
+        add(key, entry);
+        return entry.program;
+    }
+
+    private void add(String key, Entry entry) {
+        entries.put(key, entry);
+        sourceBytes += entry.sourceBytes;
+        Iterator<Entry> eldest = entries.values().iterator();
+        while (sourceBytes > maxSourceBytes && entries.size() > 1) {
+            sourceBytes -= eldest.next().sourceBytes;
+            eldest.remove();
+        }
+    }
+
+    // Reads a program from the cache directory, or returns null if it isn't there or can't be
+    // read. An unreadable file is deleted, so it is replaced on the next save.
+    private Entry load(String key, long sourceLength) {
+        if (directory == null) {
+            return null;
+        }
+        Path file = directory.resolve(key + ".ast");
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        try {
+            ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(file));
+            if (in.remaining() < HEADER_BYTES || in.getInt() != FILE_MAGIC || in.getInt() != FILE_VERSION) {
+                throw new IOException("Not a cached program of this version");
+            }
+            long parseNanos = in.getLong();
+            return new Entry(ProgramCodec.decode(in), sourceLength, parseNanos);
+        } catch (IOException | RuntimeException e) {
+            Trace.log(Trace.Category.PARSER, Trace.Level.INFO, () -> "Discarding cached program " + file + ": " + e);
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException ignored) {
+                // It will be overwritten instead
+            }
+            return null;
+        }
+    }
+
+    // Writes a program to the cache directory. Written to a temporary file first, so a reader never
+    // sees half a file. Failing to save just means the program is parsed again next time.
+    private void save(String key, Entry entry) {
+        if (directory == null) {
+            return;
+        }
+        try {
+            Files.createDirectories(directory);
+            Path temporary = Files.createTempFile(directory, key, ".tmp");
+            byte[] program = ProgramCodec.encode(entry.program);
+            ByteBuffer out = ByteBuffer.allocate(HEADER_BYTES + program.length);
+            out.putInt(FILE_MAGIC).putInt(FILE_VERSION).putLong(entry.parseNanos).put(program);
+            Files.write(temporary, out.array());
+            Files.move(temporary, directory.resolve(key + ".ast"), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            Trace.log(Trace.Category.PARSER, Trace.Level.INFO, () -> "Could not cache program " + key + ": " + e);
+        }
+    }
+
+    private static String hash(byte[] source) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(source);
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // Every JVM has SHA-256
+        }
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getDiskHits() {
+        return diskHits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getSavedNanos() {
+        return savedNanos;
+    }
+
+    @Override
+    public synchronized String toString() {
+        long lookups = hits + diskHits + misses;
+        return "Program cache: " + hits + " memory hits, " + diskHits + " disk hits, " + misses + " misses ("
+                + (lookups == 0 ? 0 : (hits + diskHits) * 100 / lookups) + "% hit rate), "
+                + String.format("%.1f", savedNanos / 1e6) + " ms of parsing saved";
+    }
+}
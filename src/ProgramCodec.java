@@ -0,0 +1,290 @@
+// ProgramCodec.java
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Binary encoding of parsed programs, the trees MarathiParser produces. Each node is a kind byte
+// followed by its fields in order; counts and indexes are unsigned varints (7 bits per byte, high
+// bit set on all but the last). Names and literal text are written once and referred to by index
+// after that, so a program that uses a name a thousand times stores it once.
+public final class ProgramCodec {
+    private static final int NULL = 0;
+    private static final int BLOCK = 1;
+    private static final int WHILE = 2;
+    private static final int FOR = 3;
+    private static final int IF = 4;
+    private static final int VARIABLE_DECLARATION = 5;
+    private static final int ASSIGNMENT = 6;
+    private static final int PRINT = 7;
+    private static final int RETURN = 8;
+    private static final int FUNCTION_CALL = 9;
+    private static final int FUNCTION_DECLARATION = 10;
+    private static final int BINARY_OPERATION = 11;
+    private static final int VARIABLE_REFERENCE = 12;
+    private static final int NUMBER = 13;
+    private static final int FLOAT = 14;
+    private static final int STRING = 15;
+
+    private ProgramCodec() {
+    }
+
+    public static byte[] encode(ASTNode node) {
+        Writer writer = new Writer();
+        writer.write(node);
+        return Arrays.copyOf(writer.bytes, writer.length);
+    }
+
+    // Reads a program written by encode from the remaining bytes of buffer. Throws IOException if
+    // they are not a valid program.
+    public static ASTNode decode(ByteBuffer buffer) throws IOException {
+        try {
+            return new Reader(buffer).read();
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated program");
+        }
+    }
+
+    private static final class Writer {
+        private byte[] bytes = new byte[4096];
+        private int length;
+        private final Map<String, Integer> strings = new HashMap<>();
+
+        void write(ASTNode node) {
+            if (node == null) {
+                writeByte(NULL);
+            } else if (node instanceof BlockNode) {
+                List<ASTNode> statements = ((BlockNode) node).getStatements();
+                writeByte(BLOCK);
+                writeCount(statements.size());
+                for (ASTNode statement : statements) {
+                    write(statement);
+                }
+            } else if (node instanceof WhileStatementNode) {
+                WhileStatementNode whileStmtNode = (WhileStatementNode) node;
+                writeByte(WHILE);
+                write(whileStmtNode.getCondition());
+                write(whileStmtNode.getBody());
+            } else if (node instanceof ForStatementNode) {
+                ForStatementNode forStmtNode = (ForStatementNode) node;
+                writeByte(FOR);
+                write(forStmtNode.getInitialization());
+                write(forStmtNode.getCondition());
+                write(forStmtNode.getIncrement());
+                write(forStmtNode.getBody());
+            } else if (node instanceof IfStatementNode) {
+                IfStatementNode ifStmtNode = (IfStatementNode) node;
+                writeByte(IF);
+                write(ifStmtNode.getCondition());
+                write(ifStmtNode.getThenBranch());
+                write(ifStmtNode.getElseBranch());
+            } else if (node instanceof VariableDeclarationNode) {
+                VariableDeclarationNode varDeclNode = (VariableDeclarationNode) node;
+                writeByte(VARIABLE_DECLARATION);
+                writeString(varDeclNode.getVariableName());
+                write(varDeclNode.getValue());
+            } else if (node instanceof AssignmentNode) {
+                AssignmentNode assignmentNode = (AssignmentNode) node;
+                writeByte(ASSIGNMENT);
+                writeString(assignmentNode.getVariableName());
+                write(assignmentNode.getValue());
+            } else if (node instanceof PrintStatementNode) {
+                writeByte(PRINT);
+                write(((PrintStatementNode) node).getExpression());
+            } else if (node instanceof ReturnStatementNode) {
+                writeByte(RETURN);
+                write(((ReturnStatementNode) node).getExpression());
+            } else if (node instanceof FunctionCallNode) {
+                FunctionCallNode funcCallNode = (FunctionCallNode) node;
+                writeByte(FUNCTION_CALL);
+                writeString(funcCallNode.getFunctionName());
+                writeCount(funcCallNode.getArgumentArray().length);
+                for (ASTNode argument : funcCallNode.getArgumentArray()) {
+                    write(argument);
+                }
+            } else if (node instanceof FunctionDeclarationNode) {
+                FunctionDeclarationNode funcDeclNode = (FunctionDeclarationNode) node;
+                writeByte(FUNCTION_DECLARATION);
+                writeString(funcDeclNode.getFunctionName());
+                writeCount(funcDeclNode.getParameterCount());
+                for (String parameter : funcDeclNode.getParameters()) {
+                    writeString(parameter);
+                }
+                write(funcDeclNode.getBody());
+            } else if (node instanceof BinaryOperationNode) {
+                BinaryOperationNode binOp = (BinaryOperationNode) node;
+                writeByte(BINARY_OPERATION);
+                writeByte(binOp.getOperator().ordinal());
+                write(binOp.getLeft());
+                write(binOp.getRight());
+            } else if (node instanceof VariableReferenceNode) {
+                writeByte(VARIABLE_REFERENCE);
+                writeString(((VariableReferenceNode) node).getVariableName());
+            } else if (node instanceof NumberNode) {
+                writeByte(NUMBER);
+                writeString(((NumberNode) node).getValue());
+            } else if (node instanceof FloatNode) {
+                writeByte(FLOAT);
+                writeString(((FloatNode) node).getValue());
+            } else if (node instanceof StringNode) {
+                writeByte(STRING);
+                writeString(((StringNode) node).getValue());
+            } else {
+                // Only parser output is encoded, never optimized trees
+                throw new IllegalArgumentException("Cannot encode " + node.getClass().getName());
+            }
+        }
+
+        private void writeByte(int value) {
+            if (length == bytes.length) {
+                bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            }
+            bytes[length++] = (byte) value;
+        }
+
+        private void writeCount(int count) {
+            while ((count & ~0x7f) != 0) {
+                writeByte((count & 0x7f) | 0x80);
+                count >>>= 7;
+            }
+            writeByte(count);
+        }
+
+        // A string seen before is written as its index plus one, a new one as 0 and its UTF-8 bytes
+        private void writeString(String value) {
+            Integer index = strings.get(value);
+            if (index != null) {
+                writeCount(index + 1);
+                return;
+            }
+            strings.put(value, strings.size());
+            byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+            writeCount(0);
+            writeCount(utf8.length);
+            if (length + utf8.length > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + utf8.length));
+            }
+            System.arraycopy(utf8, 0, bytes, length, utf8.length);
+            length += utf8.length;
+        }
+    }
+
+    private static final class Reader {
+        private final ByteBuffer in;
+        private final List<String> strings = new ArrayList<>();
+
+        Reader(ByteBuffer in) {
+            this.in = in;
+        }
+
+        ASTNode read() throws IOException {
+            int kind = in.get() & 0xff;
+            switch (kind) {
+                case NULL:
+                    return null;
+                case BLOCK: {
+                    int count = readCount();
+                    List<ASTNode> statements = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) {
+                        statements.add(read());
+                    }
+                    return new BlockNode(statements);
+                }
+                case WHILE:
+                    return new WhileStatementNode(read(), read());
+                case FOR:
+                    return new ForStatementNode(read(), read(), read(), read());
+                case IF:
+                    return new IfStatementNode(read(), read(), read());
+                case VARIABLE_DECLARATION:
+                    return new VariableDeclarationNode(readString(), read());
+                case ASSIGNMENT:
+                    return new AssignmentNode(readString(), read());
+                case PRINT:
+                    return new PrintStatementNode(read());
+                case RETURN:
+                    return new ReturnStatementNode(read());
+                case FUNCTION_CALL: {
+                    String functionName = readString();
+                    int count = readCount();
+                    List<ASTNode> arguments = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) {
+                        arguments.add(read());
+                    }
+                    return new FunctionCallNode(functionName, arguments);
+                }
+                case FUNCTION_DECLARATION: {
+                    String functionName = readString();
+                    int count = readCount();
+                    List<String> parameters = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) {
+                        parameters.add(readString());
+                    }
+                    return new FunctionDeclarationNode(functionName, parameters, read());
+                }
+                case BINARY_OPERATION: {
+                    int operator = in.get() & 0xff;
+                    if (operator >= Operator.values().length) {
+                        throw new IOException("Unknown operator " + operator);
+                    }
+                    return new BinaryOperationNode(read(), Operator.values()[operator], read());
+                }
+                case VARIABLE_REFERENCE:
+                    return new VariableReferenceNode(readString());
+                case NUMBER:
+                    return new NumberNode(readString());
+                case FLOAT:
+                    return new FloatNode(readString());
+                case STRING:
+                    return new StringNode(readString());
+                default:
+                    throw new IOException("Unknown node kind " + kind);
+            }
+        }
+
+        private int readCount() throws IOException {
+            int count = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                int b = in.get();
+                count |= (b & 0x7f) << shift;
+                if (b >= 0) {
+                    if (count < 0) {
+                        break;
+                    }
+                    return count;
+                }
+            }
+            throw new IOException("Malformed count");
+        }
+
+        private String readString() throws IOException {
+            int reference = readCount();
+            if (reference > 0) {
+                if (reference > strings.size()) {
+                    throw new IOException("Unknown string " + reference);
+                }
+                return strings.get(reference - 1);
+            }
+            int length = readCount();
+            if (length > in.remaining()) {
+                throw new IOException("Truncated string");
+            }
+            String value;
+            if (in.hasArray()) {
+                value = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+                in.position(in.position() + length);
+            } else {
+                byte[] bytes = new byte[length];
+                in.get(bytes);
+                value = new String(bytes, StandardCharsets.UTF_8);
+            }
+            strings.add(value);
+            return value;
+        }
+    }
+}
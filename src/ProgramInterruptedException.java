@@ -0,0 +1,19 @@
+// ProgramInterruptedException.java
+// Thrown when the thread running a program is interrupted, for example by an editor's Stop button.
+// Engines check at every loop back-edge and function call, the only places a program can spend
+// unbounded time, so a program stops soon after its thread is interrupted.
+public class ProgramInterruptedException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public ProgramInterruptedException() {
+        super("Program stopped");
+    }
+
+    // Throws if the current thread has been interrupted. Leaves the interrupt flag set, so whoever
+    // started the program can tell why it stopped.
+    public static void check() {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new ProgramInterruptedException();
+        }
+    }
+}
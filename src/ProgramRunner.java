@@ -0,0 +1,106 @@
+// ProgramRunner.java
+import javax.swing.JTextArea;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Element;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+// Runs a program for an editor on a background thread, so the window stays responsive, and streams
+// its Chapa output into a text area while it runs. Output goes through a blocking
+// RingBufferOutputSink that a Swing timer drains at most REFRESH_MILLIS apart, so a program printing
+// in a tight loop costs the EDT one append per tick rather than one per line; if the EDT falls
+// behind, the program waits for it. The text area keeps the last maxLines lines.
+//
+// stop() interrupts the program thread, and the engines stop at their next loop back-edge or call
+// (see ProgramInterruptedException). Create, start and stop on the EDT.
+public class ProgramRunner {
+    private static final int REFRESH_MILLIS = 50;
+
+    private final JTextArea output;
+    private final int maxLines;
+    private final RingBufferOutputSink sink;
+    private final Timer refreshTimer;
+    private Thread thread;
+
+    public ProgramRunner(JTextArea output, int maxLines) {
+        this.output = output;
+        this.maxLines = maxLines;
+        this.sink = new RingBufferOutputSink(maxLines, true);
+        this.refreshTimer = new Timer(REFRESH_MILLIS, e -> drain());
+    }
+
+    // Parses the program with parser and runs it on engine, both on the program thread. Calls
+    // finished on the EDT, once all output is shown, with null or the message of the error that
+    // ended the program.
+    public void start(MarathiEngine engine, Supplier<ASTNode> parser, Consumer<String> finished) {
+        engine.setOutputSink(sink);
+        refreshTimer.start();
+        thread = startThread(() -> {
+            String error = null;
+            try {
+                engine.interpret(parser.get());
+            } catch (ProgramInterruptedException e) {
+                error = e.getMessage();
+            } catch (RuntimeException | Error e) {
+                // Interrupting a program waiting for output to be drained also ends up here
+                error = Thread.currentThread().isInterrupted() ? "Program stopped" : String.valueOf(e.getMessage());
+            }
+            String message = error;
+            SwingUtilities.invokeLater(() -> {
+                refreshTimer.stop();
+                drain();
+                finished.accept(message);
+            });
+        });
+    }
+
+    public void stop() {
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    // Moves the output printed since the last tick into the text area
+    private void drain() {
+        List<String> lines = new ArrayList<>();
+        if (sink.drainTo(lines) == 0) {
+            return;
+        }
+        StringBuilder text = new StringBuilder();
+        for (String line : lines) {
+            text.append(line).append('\n');
+        }
+        output.append(text.toString());
+
+        Element root = output.getDocument().getDefaultRootElement();
+        int excess = root.getElementCount() - 1 - maxLines; // The last line is the empty one after the final '\n'
+        if (excess > 0) {
+            try {
+                output.getDocument().remove(0, root.getElement(excess).getStartOffset());
+            } catch (BadLocationException e) {
+                throw new IllegalStateException(e); // The offset comes from the document's own lines
+            }
+        }
+    }
+
+    // Starts task on a virtual thread when the JVM has them (Java 21 and later), since the program
+    // mostly waits on the deep-stack thread the engines run it on. This builds on Java 17, so they
+    // are found reflectively, with a daemon platform thread otherwise.
+    private static Thread startThread(Runnable task) {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            return (Thread) Class.forName("java.lang.Thread$Builder").getMethod("start", Runnable.class)
+                    .invoke(builder, task);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // Fall back: no virtual threads, or only as a preview feature that isn't enabled
+        }
+        Thread thread = new Thread(task, "marathi-program");
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+}
@@ -0,0 +1,109 @@
+// PurityAnalyzer.java
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+// Decides which declared functions are pure: their result depends only on their arguments, and
+// calling them does nothing but compute it. A function is pure if its body prints nothing, neither
+// reads nor writes a global, declares no function, and calls only pure functions. Globals are
+// excluded for reading as well as writing, since a function reading one can return something
+// different for the same arguments.
+//
+// Calls are bound by name when they run, so whether a call is to a pure function depends on what
+// is declared at the time; analyze is rerun whenever that changes. Runs on resolved code.
+public class PurityAnalyzer {
+    // Names called by each function whose own body qualifies, or null if it doesn't; a body never
+    // changes, so this is worked out once per declaration
+    private Map<FunctionDeclarationNode, Set<String>> callees = new HashMap<>();
+
+    // Returns the names of the pure functions in functionTable
+    public Set<String> analyze(Map<String, FunctionDeclarationNode> functionTable) {
+        Set<String> pure = new HashSet<>();
+        for (Map.Entry<String, FunctionDeclarationNode> entry : functionTable.entrySet()) {
+            if (calleesOf(entry.getValue()) != null) {
+                pure.add(entry.getKey());
+            }
+        }
+
+        // Drop functions that call one that isn't pure until none are left to drop. Recursive
+        // functions stay pure unless something in the cycle isn't.
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (Iterator<String> iterator = pure.iterator(); iterator.hasNext(); ) {
+                if (!pure.containsAll(calleesOf(functionTable.get(iterator.next())))) {
+                    iterator.remove();
+                    changed = true;
+                }
+            }
+        }
+        return pure;
+    }
+
+    private Set<String> calleesOf(FunctionDeclarationNode funcDeclNode) {
+        if (!callees.containsKey(funcDeclNode)) {
+            Set<String> names = new HashSet<>();
+            callees.put(funcDeclNode, scan(funcDeclNode.getBody(), names) ? names : null);
+        }
+        return callees.get(funcDeclNode);
+    }
+
+    // Adds the names the code calls to names, and returns false if it does anything impure itself
+    private boolean scan(ASTNode node, Set<String> names) {
+        if (node == null || node instanceof ConstantNode || node instanceof NumberNode || node instanceof FloatNode
+                || node instanceof StringNode) {
+            return true;
+        } else if (node instanceof BlockNode) {
+            for (ASTNode statement : ((BlockNode) node).getStatements()) {
+                if (!scan(statement, names)) {
+                    return false;
+                }
+            }
+            return true;
+        } else if (node instanceof WhileStatementNode) {
+            WhileStatementNode whileStmtNode = (WhileStatementNode) node;
+            return scan(whileStmtNode.getCondition(), names) && scan(whileStmtNode.getBody(), names);
+        } else if (node instanceof ForStatementNode) {
+            ForStatementNode forStmtNode = (ForStatementNode) node;
+            return scan(forStmtNode.getInitialization(), names) && scan(forStmtNode.getCondition(), names)
+                    && scan(forStmtNode.getIncrement(), names) && scan(forStmtNode.getBody(), names);
+        } else if (node instanceof IfStatementNode) {
+            IfStatementNode ifStmtNode = (IfStatementNode) node;
+            return scan(ifStmtNode.getCondition(), names) && scan(ifStmtNode.getThenBranch(), names)
+                    && scan(ifStmtNode.getElseBranch(), names);
+        } else if (node instanceof VariableDeclarationNode) {
+            VariableDeclarationNode varDeclNode = (VariableDeclarationNode) node;
+            return !varDeclNode.isGlobal() && scan(varDeclNode.getValue(), names);
+        } else if (node instanceof AssignmentNode) {
+            AssignmentNode assignmentNode = (AssignmentNode) node;
+            return !assignmentNode.isGlobal() && scan(assignmentNode.getValue(), names);
+        } else if (node instanceof VariableReferenceNode) {
+            return !((VariableReferenceNode) node).isGlobal();
+        } else if (node instanceof BinaryOperationNode) {
+            BinaryOperationNode binOp = (BinaryOperationNode) node;
+            return scan(binOp.getLeft(), names) && scan(binOp.getRight(), names);
+        } else if (node instanceof ConcatNode) {
+            for (ASTNode part : ((ConcatNode) node).getPartArray()) {
+                if (!scan(part, names)) {
+                    return false;
+                }
+            }
+            return true;
+        } else if (node instanceof ReturnStatementNode) {
+            return scan(((ReturnStatementNode) node).getExpression(), names);
+        } else if (node instanceof FunctionCallNode) {
+            FunctionCallNode funcCallNode = (FunctionCallNode) node;
+            names.add(funcCallNode.getFunctionName());
+            for (ASTNode argument : funcCallNode.getArgumentArray()) {
+                if (!scan(argument, names)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        // Chapa, function declarations and anything unknown
+        return false;
+    }
+}
@@ -0,0 +1,168 @@
+// Resolver.java
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Static pass run between parsing and interpretation. Gives every variable a slot index in either
+// the global frame or the frame of the function it belongs to, so the interpreter can use array
+// indexing instead of looking names up in a map.
+//
+// Inside a function, parameters, names declared with "He aahe" and names assigned before any global
+// of that name exists are locals; every other name refers to the global frame. Functions only see
+// their own locals and the globals, not the locals of an enclosing function.
+public class Resolver {
+    private Map<String, Integer> globals = new HashMap<>();
+    private Map<String, Integer> locals; // null while resolving top-level code
+
+    // Resolves a program or a single top-level statement. Can be called repeatedly; global slots
+    // are kept across calls.
+    public void resolve(ASTNode node) {
+        if (node == null) {
+            return;
+        }
+        if (node instanceof BlockNode) {
+            for (ASTNode statement : ((BlockNode) node).getStatements()) {
+                resolve(statement);
+            }
+        } else if (node instanceof WhileStatementNode) {
+            WhileStatementNode whileStmtNode = (WhileStatementNode) node;
+            resolve(whileStmtNode.getCondition());
+            resolve(whileStmtNode.getBody());
+        } else if (node instanceof ForStatementNode) {
+            ForStatementNode forStmtNode = (ForStatementNode) node;
+            resolve(forStmtNode.getInitialization());
+            resolve(forStmtNode.getCondition());
+            resolve(forStmtNode.getIncrement());
+            resolve(forStmtNode.getBody());
+        } else if (node instanceof IfStatementNode) {
+            IfStatementNode ifStmtNode = (IfStatementNode) node;
+            resolve(ifStmtNode.getCondition());
+            resolve(ifStmtNode.getThenBranch());
+            resolve(ifStmtNode.getElseBranch());
+        } else if (node instanceof VariableDeclarationNode) {
+            VariableDeclarationNode varDeclNode = (VariableDeclarationNode) node;
+            resolve(varDeclNode.getValue());
+            String name = varDeclNode.getVariableName();
+            if (locals != null) {
+                varDeclNode.setSlot(localSlot(name), false);
+            } else {
+                varDeclNode.setSlot(globalSlot(name), true);
+            }
+        } else if (node instanceof AssignmentNode) {
+            AssignmentNode assignmentNode = (AssignmentNode) node;
+            resolve(assignmentNode.getValue());
+            String name = assignmentNode.getVariableName();
+            int slot = lookup(name);
+            if (slot >= 0) {
+                assignmentNode.setSlot(slot, false);
+            } else if (locals != null && !globals.containsKey(name)) {
+                assignmentNode.setSlot(localSlot(name), false);
+            } else {
+                assignmentNode.setSlot(globalSlot(name), true);
+            }
+        } else if (node instanceof VariableReferenceNode) {
+            VariableReferenceNode reference = (VariableReferenceNode) node;
+            int slot = lookup(reference.getVariableName());
+            if (slot >= 0) {
+                reference.setSlot(slot, false);
+            } else {
+                reference.setSlot(globalSlot(reference.getVariableName()), true);
+            }
+        } else if (node instanceof BinaryOperationNode) {
+            BinaryOperationNode binOp = (BinaryOperationNode) node;
+            resolve(binOp.getLeft());
+            resolve(binOp.getRight());
+        } else if (node instanceof ConcatNode) {
+            for (ASTNode part : ((ConcatNode) node).getPartArray()) {
+                resolve(part);
+            }
+        } else if (node instanceof PrintStatementNode) {
+            resolve(((PrintStatementNode) node).getExpression());
+        } else if (node instanceof ReturnStatementNode) {
+            if (locals == null) {
+                throw new RuntimeException("Bolav outside a function");
+            }
+            resolve(((ReturnStatementNode) node).getExpression());
+        } else if (node instanceof FunctionCallNode) {
+            for (ASTNode argument : ((FunctionCallNode) node).getArguments()) {
+                resolve(argument);
+            }
+        } else if (node instanceof FunctionDeclarationNode) {
+            resolveFunction((FunctionDeclarationNode) node);
+        }
+        // Literals need no resolution
+    }
+
+    private void resolveFunction(FunctionDeclarationNode funcDeclNode) {
+        Map<String, Integer> enclosingLocals = locals;
+        locals = new HashMap<>();
+
+        // Parameters take the first slots of the frame, in order
+        List<String> parameters = funcDeclNode.getParameters();
+        for (String parameter : parameters) {
+            if (locals.containsKey(parameter)) {
+                throw new RuntimeException("Duplicate parameter " + parameter + " in function "
+                        + funcDeclNode.getFunctionName());
+            }
+            localSlot(parameter);
+        }
+        resolve(funcDeclNode.getBody());
+        funcDeclNode.setFrameSize(locals.size());
+
+        locals = enclosingLocals;
+    }
+
+    // Returns the local slot of name, or -1 if it is not a local of the current function
+    private int lookup(String name) {
+        if (locals == null) {
+            return -1;
+        }
+        Integer slot = locals.get(name);
+        return slot != null ? slot : -1;
+    }
+
+    private int localSlot(String name) {
+        Integer slot = locals.get(name);
+        if (slot == null) {
+            slot = locals.size();
+            locals.put(name, slot);
+        }
+        return slot;
+    }
+
+    private int globalSlot(String name) {
+        Integer slot = globals.get(name);
+        if (slot == null) {
+            slot = globals.size();
+            globals.put(name, slot);
+        }
+        return slot;
+    }
+
+    // Number of global slots handed out so far
+    public int getGlobalCount() {
+        return globals.size();
+    }
+
+    // Names of the globals, indexed by slot
+    public String[] getGlobalNames() {
+        String[] names = new String[globals.size()];
+        for (Map.Entry<String, Integer> entry : globals.entrySet()) {
+            names[entry.getValue()] = entry.getKey();
+        }
+        return names;
+    }
+
+    // Gives names the global slots they had when a CompiledProgram was resolved, so statements
+    // resolved after it is run see its globals. Only possible before anything else is resolved.
+    public void declareGlobals(String[] names) {
+        if (!globals.isEmpty()) {
+            throw new IllegalStateException("Globals are already declared");
+        }
+        for (String name : names) {
+            if (globalSlot(name) != globals.size() - 1) {
+                throw new IllegalArgumentException("Duplicate global " + name);
+            }
+        }
+    }
+}
@@ -0,0 +1,77 @@
+// RingBufferOutputSink.java
+import java.util.List;
+
+// Keeps the most recent lines in a fixed-size ring, for a consumer such as the editor to drain.
+// In blocking mode a full ring makes the program wait until the consumer catches up (back-pressure);
+// otherwise the oldest line is dropped to make room, so memory stays bounded either way.
+public class RingBufferOutputSink extends OutputSink {
+    private String[] lines;
+    private int head; // Index of the oldest line
+    private int size;
+    private long dropped; // Lines discarded because the ring was full
+    private boolean blocking;
+
+    public RingBufferOutputSink(int capacity, boolean blocking) {
+        this.lines = new String[capacity];
+        this.blocking = blocking;
+    }
+
+    @Override
+    protected synchronized void writeLine(StringBuilder line) {
+        String text = line.toString();
+        if (size == lines.length) {
+            if (blocking) {
+                try {
+                    while (size == lines.length) {
+                        wait();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException("Interrupted while waiting for output to be consumed");
+                }
+            } else {
+                lines[head] = null;
+                head = (head + 1) % lines.length;
+                size--;
+                dropped++;
+            }
+        }
+        lines[(head + size) % lines.length] = text;
+        size++;
+        notifyAll();
+    }
+
+    // Moves every buffered line into target, oldest first, and returns how many were moved
+    public synchronized int drainTo(List<String> target) {
+        int count = size;
+        for (int i = 0; i < count; i++) {
+            target.add(lines[head]);
+            lines[head] = null;
+            head = (head + 1) % lines.length;
+        }
+        size = 0;
+        notifyAll(); // Wake a program waiting for space
+        return count;
+    }
+
+    // Number of lines dropped so far because the ring was full
+    public synchronized long getDropped() {
+        return dropped;
+    }
+
+    // The buffered lines, preceded by a note if earlier lines had to be dropped
+    @Override
+    public synchronized String getText() {
+        StringBuilder text = new StringBuilder();
+        if (dropped > 0) {
+            text.append("... ").append(dropped).append(" earlier lines dropped");
+        }
+        for (int i = 0; i < size; i++) {
+            if (i > 0 || dropped > 0) {
+                text.append('\n');
+            }
+            text.append(lines[(head + i) % lines.length]);
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,92 @@
+// Rope.java
+import java.util.ArrayDeque;
+
+// A string built by lazy concatenation. Joining two long strings makes a Rope node instead of
+// copying both, so building a string up in a loop is linear rather than quadratic. The characters
+// are copied out once, when the value is first printed or otherwise needs to be a String.
+// Ropes are used as string values alongside plain Strings (see Values).
+public final class Rope implements CharSequence {
+    // Results up to this length are copied into a plain String straight away
+    private static final int SHORT_LENGTH = 256;
+
+    private CharSequence left;
+    private CharSequence right;
+    private int length;
+    private String flat; // Set once flattened, after which left and right are released
+
+    private Rope(CharSequence left, CharSequence right) {
+        this.left = left;
+        this.right = right;
+        this.length = left.length() + right.length();
+    }
+
+    // Joins two strings, lazily if the result is long
+    public static CharSequence concat(CharSequence left, CharSequence right) {
+        if (right.length() == 0) {
+            return left;
+        }
+        if (left.length() == 0) {
+            return right;
+        }
+        if (left.length() + right.length() <= SHORT_LENGTH) {
+            return left.toString().concat(right.toString());
+        }
+
+        // Appending a short piece to a rope that ends in a short piece merges the two pieces, so
+        // appending a character at a time makes one node per SHORT_LENGTH characters
+        if (left instanceof Rope && right.length() < SHORT_LENGTH) {
+            Rope rope = (Rope) left;
+            if (rope.flat == null && rope.right.length() + right.length() <= SHORT_LENGTH) {
+                return new Rope(rope.left, rope.right.toString().concat(right.toString()));
+            }
+        }
+        return new Rope(left, right);
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        return toString().charAt(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return toString().subSequence(start, end);
+    }
+
+    @Override
+    public String toString() {
+        if (flat == null) {
+            flat = new String(flatten());
+            left = null;
+            right = null;
+        }
+        return flat;
+    }
+
+    // Copies the pieces into one array from the end backwards, without recursion, since ropes built
+    // in a loop are as deep as the number of iterations
+    private char[] flatten() {
+        char[] chars = new char[length];
+        int end = length;
+        ArrayDeque<CharSequence> pending = new ArrayDeque<>();
+        pending.push(this);
+        while (!pending.isEmpty()) {
+            CharSequence piece = pending.pop();
+            if (piece instanceof Rope && ((Rope) piece).flat == null) {
+                Rope rope = (Rope) piece;
+                pending.push(rope.left);
+                pending.push(rope.right); // Taken first, since it is copied first
+            } else {
+                String text = piece.toString();
+                end -= text.length();
+                text.getChars(0, text.length(), chars, end);
+            }
+        }
+        return chars;
+    }
+}
@@ -0,0 +1,39 @@
+// StringOutputSink.java
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Captures all output in memory, for tests and for printing it once the program has finished
+public class StringOutputSink extends OutputSink {
+    private StringBuilder text = new StringBuilder();
+    private int[] lineEnds = new int[64]; // End offset in text of each line
+    private int lineCount;
+
+    @Override
+    protected void writeLine(StringBuilder line) {
+        if (lineCount > 0) {
+            text.append('\n');
+        }
+        text.append(line);
+        if (lineCount == lineEnds.length) {
+            lineEnds = Arrays.copyOf(lineEnds, lineCount * 2);
+        }
+        lineEnds[lineCount++] = text.length();
+    }
+
+    @Override
+    public String getText() {
+        return text.toString();
+    }
+
+    // The captured lines, one per print, even if a printed value itself contained line breaks
+    public List<String> getLines() {
+        List<String> lines = new ArrayList<>(lineCount);
+        int start = 0;
+        for (int i = 0; i < lineCount; i++) {
+            lines.add(text.substring(start, lineEnds[i]));
+            start = lineEnds[i] + 1;
+        }
+        return lines;
+    }
+}
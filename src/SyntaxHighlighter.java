@@ -0,0 +1,294 @@
+// SyntaxHighlighter.java
+import javax.swing.SwingUtilities;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.AttributeSet;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Element;
+import javax.swing.text.SimpleAttributeSet;
+import javax.swing.text.StyleContext;
+import javax.swing.text.StyledDocument;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Colors Marathi code in a StyledDocument as it is edited, with the "keyword", "variable", "number"
+// and "string" styles of a StyleContext. Only the lines an edit touched are lexed again, plus the
+// lines after them for as long as the edit changed how they start: typing an opening quote recolors
+// the rest of the document, typing inside a line recolors that line.
+//
+// What a line means depends only on whether it starts inside a string literal, the one token that
+// can span lines, so that is all that is kept per line. Lines are lexed on a background thread in
+// batches of BATCH_LINES, and each batch is styled in a single event on the EDT, so the EDT never
+// does more than a batch's worth of work at a time however large the document is. Tokens are read
+// as MarathiTokenizer reads them, keyword prefixes included.
+//
+// Must be created, and the document edited, on the EDT.
+public class SyntaxHighlighter implements DocumentListener {
+    private static final int BATCH_LINES = 256;
+
+    // Lexer state at the start of a line
+    private static final byte NORMAL = 0;
+    private static final byte IN_STRING = 1;
+
+    // Indexes into styles
+    private static final int PLAIN = 0;
+    private static final int KEYWORD = 1;
+    private static final int VARIABLE = 2;
+    private static final int NUMBER = 3;
+    private static final int STRING = 4;
+
+    private final StyledDocument document;
+    private final AttributeSet[] styles;
+    private final ExecutorService lexerThread;
+
+    // State at the start of each line, for the lineCount lines the document had at the last event
+    private byte[] lineStates = new byte[64];
+    private int lineCount;
+
+    // Lines still to be lexed, from dirtyStart up to dirtyEnd; lexing goes on past dirtyEnd while
+    // the state at the start of the next line changes
+    private int dirtyStart;
+    private int dirtyEnd;
+
+    private int version; // Counts edits, so a batch lexed from text that has changed since is dropped
+    private boolean lexing; // A batch is on the lexer thread
+
+    public SyntaxHighlighter(StyledDocument document, StyleContext styleContext) {
+        this.document = document;
+        this.styles = new AttributeSet[] { SimpleAttributeSet.EMPTY, styleContext.getStyle("keyword"),
+                styleContext.getStyle("variable"), styleContext.getStyle("number"), styleContext.getStyle("string") };
+        this.lexerThread = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "marathi-highlighter");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        // Whatever the document already holds is colored first
+        lineCount = document.getDefaultRootElement().getElementCount();
+        lineStates = new byte[Math.max(lineStates.length, lineCount)];
+        dirtyEnd = lineCount;
+        schedule();
+    }
+
+    @Override
+    public void insertUpdate(DocumentEvent e) {
+        edited(e.getOffset());
+    }
+
+    @Override
+    public void removeUpdate(DocumentEvent e) {
+        edited(e.getOffset());
+    }
+
+    @Override
+    public void changedUpdate(DocumentEvent e) {
+        // Attribute changes, including our own, need no lexing
+    }
+
+    // Records an edit at offset, which added lines to the document or removed lines from it
+    // directly after the line it is on
+    private void edited(int offset) {
+        Element root = document.getDefaultRootElement();
+        int line = root.getElementIndex(offset);
+        int delta = root.getElementCount() - lineCount;
+
+        if (delta > 0) {
+            if (lineCount + delta > lineStates.length) {
+                lineStates = Arrays.copyOf(lineStates, Math.max(lineCount + delta, lineStates.length * 2));
+            }
+            System.arraycopy(lineStates, line + 1, lineStates, line + 1 + delta, lineCount - line - 1);
+        } else if (delta < 0) {
+            System.arraycopy(lineStates, line + 1 - delta, lineStates, line + 1, lineCount - line - 1 + delta);
+        }
+        lineCount += delta;
+
+        // The edited line and any inserted ones; lines still waiting from earlier edits move with the text
+        int end = line + Math.max(delta, 0) + 1;
+        if (dirtyStart >= dirtyEnd) {
+            dirtyStart = line;
+            dirtyEnd = end;
+        } else {
+            if (dirtyStart > line) {
+                dirtyStart = Math.max(line, dirtyStart + delta);
+            }
+            if (dirtyEnd > line) {
+                dirtyEnd = Math.max(line, dirtyEnd + delta);
+            }
+            dirtyStart = Math.min(dirtyStart, line);
+            dirtyEnd = Math.max(dirtyEnd, end);
+        }
+        dirtyEnd = Math.min(dirtyEnd, lineCount);
+
+        version++;
+        schedule();
+    }
+
+    // Sends the next batch of dirty lines to the lexer thread, unless one is there already
+    private void schedule() {
+        if (lexing || dirtyStart >= dirtyEnd) {
+            return;
+        }
+        Element root = document.getDefaultRootElement();
+        int first = dirtyStart;
+        int last = Math.min(lineCount, first + BATCH_LINES);
+        int start = root.getElement(first).getStartOffset();
+        int end = Math.min(root.getElement(last - 1).getEndOffset(), document.getLength());
+        char[] text;
+        try {
+            text = document.getText(start, end - start).toCharArray();
+        } catch (BadLocationException e) {
+            throw new IllegalStateException(e); // The range comes from the document's own lines
+        }
+
+        Batch batch = new Batch(first, last, start, version);
+        byte state = lineStates[first];
+        lexing = true;
+        lexerThread.execute(() -> {
+            lex(text, state, batch);
+            SwingUtilities.invokeLater(() -> apply(batch));
+        });
+    }
+
+    // Styles a lexed batch, if the document hasn't changed since, and moves on to the next one
+    private void apply(Batch batch) {
+        lexing = false;
+        if (batch.version == version) {
+            // Restyling fires an event per run, so runs that already look right are left alone:
+            // typing in a line then only restyles the tokens it changed
+            int offset = batch.startOffset;
+            for (int i = 0; i < batch.runCount; i++) {
+                AttributeSet style = styles[batch.runStyles[i]];
+                if (!isStyled(offset, batch.runLengths[i], style)) {
+                    document.setCharacterAttributes(offset, batch.runLengths[i], style, true);
+                }
+                offset += batch.runLengths[i];
+            }
+
+            // The lines after the batch only need lexing if they now start differently
+            System.arraycopy(batch.lineStates, 1, lineStates, batch.firstLine + 1, batch.lineCount() - 1);
+            int next = batch.lastLine;
+            if (next < lineCount && lineStates[next] != batch.lineStates[batch.lineCount()]) {
+                lineStates[next] = batch.lineStates[batch.lineCount()];
+                dirtyEnd = Math.max(dirtyEnd, next + 1);
+            }
+            dirtyStart = next;
+            if (dirtyStart >= dirtyEnd) {
+                dirtyStart = 0;
+                dirtyEnd = 0;
+            }
+        }
+        // Otherwise the edit has already marked the lines, and they are lexed again from their new text
+        schedule();
+    }
+
+    // Returns true if all the text from offset to offset + length has exactly the attributes of style
+    private boolean isStyled(int offset, int length, AttributeSet style) {
+        int end = offset + length;
+        while (offset < end) {
+            Element element = document.getCharacterElement(offset);
+            if (!element.getAttributes().isEqual(style)) {
+                return false;
+            }
+            offset = element.getEndOffset();
+        }
+        return true;
+    }
+
+    // Splits the text of a batch of lines into style runs, starting in state
+    private static void lex(char[] text, byte state, Batch batch) {
+        int position = 0;
+        int length = text.length;
+        while (position < length) {
+            int start = position;
+            char c = text[position];
+            int style;
+            int keyword;
+            if (state == IN_STRING || c == '"') {
+                if (state == NORMAL) {
+                    position++; // The opening quote
+                    state = IN_STRING;
+                }
+                while (position < length && text[position] != '"') {
+                    if (text[position] == '\n') {
+                        batch.endLine(IN_STRING);
+                    }
+                    position++;
+                }
+                if (position < length) {
+                    position++; // The closing quote
+                    state = NORMAL;
+                }
+                style = STRING;
+            } else if (c == '\n') {
+                batch.endLine(NORMAL);
+                position++;
+                style = PLAIN;
+            } else if ((keyword = MarathiTokenizer.keywordLength(text, position, length)) > 0) {
+                position += keyword;
+                style = KEYWORD;
+            } else if (Character.isDigit(c)) {
+                while (position < length && (Character.isDigit(text[position]) || text[position] == '.')) {
+                    position++;
+                }
+                style = NUMBER;
+            } else if (Character.isLetter(c)) {
+                while (position < length && (Character.isLetterOrDigit(text[position]) || text[position] == '_')) {
+                    position++;
+                }
+                style = VARIABLE;
+            } else {
+                position++; // Whitespace, operators, punctuation and characters the tokenizer rejects
+                style = PLAIN;
+            }
+            batch.addRun(position - start, style);
+        }
+    }
+
+    // A range of lines and, once lexed, their style runs and the state each line starts in
+    private static final class Batch {
+        final int firstLine;
+        final int lastLine; // Exclusive
+        final int startOffset;
+        final int version;
+
+        // lineStates[i] is the state at the start of firstLine + i; the last entry is for lastLine
+        final byte[] lineStates;
+        int linesEnded;
+
+        // Adjacent tokens of the same style share a run
+        int[] runLengths = new int[64];
+        byte[] runStyles = new byte[64];
+        int runCount;
+
+        Batch(int firstLine, int lastLine, int startOffset, int version) {
+            this.firstLine = firstLine;
+            this.lastLine = lastLine;
+            this.startOffset = startOffset;
+            this.version = version;
+            this.lineStates = new byte[lastLine - firstLine + 1];
+        }
+
+        int lineCount() {
+            return lastLine - firstLine;
+        }
+
+        void endLine(byte nextState) {
+            lineStates[++linesEnded] = nextState;
+        }
+
+        void addRun(int length, int style) {
+            if (runCount > 0 && runStyles[runCount - 1] == style) {
+                runLengths[runCount - 1] += length;
+                return;
+            }
+            if (runCount == runLengths.length) {
+                runLengths = Arrays.copyOf(runLengths, runCount * 2);
+                runStyles = Arrays.copyOf(runStyles, runCount * 2);
+            }
+            runLengths[runCount] = length;
+            runStyles[runCount] = (byte) style;
+            runCount++;
+        }
+    }
+}
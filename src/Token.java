@@ -1,14 +1,14 @@
 // Token.java
 public class Token {
-    private String type;
+    private TokenType type;
     private String value;
 
-    public Token(String type, String value) {
+    public Token(TokenType type, String value) {
         this.type = type;
         this.value = value;
     }
 
-    public String getType() {
+    public TokenType getType() {
         return type;
     }
 
@@ -0,0 +1,133 @@
+// TokenStream.java
+import java.util.Arrays;
+
+// Tokens packed into parallel int arrays: a type code plus the start and length of the token text
+// in the source. Text is only turned into a String when the parser asks for it.
+//
+// A stream is either fully tokenized up front, or pulled lazily from a tokenizer into a small ring
+// buffer so that memory stays bounded however long the script is.
+public class TokenStream {
+    private static final TokenType[] TYPES = TokenType.values();
+
+    private char[] source;
+    private int[] types;
+    private int[] starts;
+    private int[] lengths;
+    private int size; // Number of tokens added so far
+
+    // Lazy mode only: the tokenizer to pull from and the ring buffer index mask
+    private MarathiTokenizer tokenizer;
+    private int mask = -1;
+
+    // Token text copied out of the tokenizer, used instead of offsets when there is no source array
+    private String[] texts;
+
+    public TokenStream(char[] source) {
+        this.source = source;
+        this.types = new int[64];
+        this.starts = new int[64];
+        this.lengths = new int[64];
+        this.size = 0;
+    }
+
+    // Creates a stream that pulls tokens on demand, keeping only the last window tokens (a power of two).
+    // If source is null the tokenizer supplies each token's text instead of its offsets.
+    public TokenStream(MarathiTokenizer tokenizer, char[] source, int window) {
+        if (window <= 0 || (window & (window - 1)) != 0) {
+            throw new IllegalArgumentException("Lookahead window must be a power of two: " + window);
+        }
+        this.source = source;
+        this.tokenizer = tokenizer;
+        this.types = new int[window];
+        this.starts = new int[window];
+        this.lengths = new int[window];
+        this.mask = window - 1;
+        this.size = 0;
+        if (source == null) {
+            this.texts = new String[window];
+        }
+    }
+
+    public void add(TokenType type, int start, int length) {
+        if (tokenizer == null && size == types.length) {
+            int capacity = size * 2;
+            types = Arrays.copyOf(types, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+        }
+        int slot = size & mask;
+        types[slot] = type.ordinal();
+        starts[slot] = start;
+        lengths[slot] = length;
+        size++;
+    }
+
+    // Adds a token whose text has already been materialized; text may be null for fixed-text tokens
+    public void add(TokenType type, String text) {
+        int slot = size & mask;
+        types[slot] = type.ordinal();
+        texts[slot] = text;
+        size++;
+    }
+
+    // Returns true if there is a token at index, pulling from the tokenizer if needed
+    public boolean has(int index) {
+        while (index >= size) {
+            if (tokenizer == null || !tokenizer.pull(this)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private int slot(int index) {
+        if (tokenizer != null && index < size - types.length) {
+            throw new IllegalStateException("Token " + index + " is no longer buffered");
+        }
+        return index & mask;
+    }
+
+    public int typeCode(int index) {
+        return types[slot(index)];
+    }
+
+    public TokenType type(int index) {
+        return TYPES[types[slot(index)]];
+    }
+
+    public String text(int index) {
+        int slot = slot(index);
+        if (texts != null) {
+            String text = texts[slot];
+            return text != null ? text : TYPES[types[slot]].getFixedText();
+        }
+        return new String(source, starts[slot], lengths[slot]);
+    }
+
+    // Compares the token text without materializing it
+    public boolean textEquals(int index, String expected) {
+        int slot = slot(index);
+        if (texts != null) {
+            return expected.equals(text(index));
+        }
+        int length = lengths[slot];
+        if (length != expected.length()) {
+            return false;
+        }
+        int start = starts[slot];
+        for (int i = 0; i < length; i++) {
+            if (source[start + i] != expected.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public Token toToken(int index) {
+        return new Token(type(index), text(index));
+    }
+}
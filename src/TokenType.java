@@ -0,0 +1,18 @@
+// TokenType.java
+public enum TokenType {
+    VAR_DECL("He aahe"), IF("Jar"), ELSE("Nahitar"), PRINT("Chapa"),
+    WHILE("joparyant"), FOR("Suruwaat"), KARYA("Karya"), BOLAV("Bolav"),
+    STRING(null), NUMBER(null), FLOAT(null), IDENTIFIER(null), OPERATOR(null),
+    LPAREN("("), RPAREN(")"), LBRACE("{"), RBRACE("}"), SEMICOLON(";"), COMMA(",");
+
+    private final String fixedText;
+
+    TokenType(String fixedText) {
+        this.fixedText = fixedText;
+    }
+
+    // The text every token of this type has, or null if it varies (identifiers, literals, operators)
+    public String getFixedText() {
+        return fixedText;
+    }
+}
@@ -0,0 +1,68 @@
+// Trace.java
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.function.Supplier;
+
+// Diagnostic tracing, off unless configured. Messages are built lazily by a Supplier, and call sites
+// on hot paths check enabled() first, so when tracing is off they cost one array load and compare:
+// no string building and no locking of System.err.
+//
+// Configured with the marathi.trace system property or Main --trace, as a comma-separated list of
+// category=level pairs, where "all" stands for every category: for example "parser=debug" or
+// "all=info,interpreter=trace".
+public final class Trace {
+    public enum Category {
+        LEXER, PARSER, INTERPRETER, JIT
+    }
+
+    // Each level includes the ones before it
+    public enum Level {
+        OFF, INFO, DEBUG, TRACE
+    }
+
+    // Enabled level of each category, indexed by ordinal
+    private static int[] levels = new int[Category.values().length];
+
+    static {
+        String spec = System.getProperty("marathi.trace");
+        if (spec != null) {
+            configure(spec);
+        }
+    }
+
+    private Trace() {
+    }
+
+    // Applies a category=level list, on top of the current settings
+    public static void configure(String spec) {
+        for (String entry : spec.split(",")) {
+            entry = entry.trim();
+            if (entry.isEmpty()) {
+                continue;
+            }
+            int separator = entry.indexOf('=');
+            String category = separator >= 0 ? entry.substring(0, separator).trim() : entry;
+            Level level = separator >= 0 ? Level.valueOf(entry.substring(separator + 1).trim().toUpperCase(Locale.ROOT))
+                    : Level.DEBUG;
+            if (category.equalsIgnoreCase("all")) {
+                Arrays.fill(levels, level.ordinal());
+            } else {
+                levels[Category.valueOf(category.toUpperCase(Locale.ROOT)).ordinal()] = level.ordinal();
+            }
+        }
+    }
+
+    public static void setLevel(Category category, Level level) {
+        levels[category.ordinal()] = level.ordinal();
+    }
+
+    public static boolean enabled(Category category, Level level) {
+        return levels[category.ordinal()] >= level.ordinal();
+    }
+
+    public static void log(Category category, Level level, Supplier<String> message) {
+        if (enabled(category, level)) {
+            System.err.println("[" + category + "] " + message.get());
+        }
+    }
+}
@@ -0,0 +1,39 @@
+// ValueRegister.java
+// Holds a single value in tag/bits form (see Values), so results can be handed back without boxing
+public final class ValueRegister {
+    private Object tag;
+    private long bits;
+
+    public Object getTag() {
+        return tag;
+    }
+
+    public long getBits() {
+        return bits;
+    }
+
+    public void set(Object tag, long bits) {
+        this.tag = tag;
+        this.bits = bits;
+    }
+
+    public void setInt(int value) {
+        tag = Values.INT;
+        bits = value;
+    }
+
+    public void setDouble(double value) {
+        tag = Values.DOUBLE;
+        bits = Values.bits(value);
+    }
+
+    public void setBoolean(boolean value) {
+        tag = Values.BOOL;
+        bits = Values.bits(value);
+    }
+
+    @Override
+    public String toString() {
+        return Values.toString(tag, bits);
+    }
+}
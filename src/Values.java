@@ -0,0 +1,99 @@
+// Values.java
+// Runtime values are handled as a (tag, bits) pair so that numbers never have to be boxed.
+// For ints, doubles and booleans the tag is one of the sentinels below and the value lives in the
+// bits. For anything else (strings) the tag is the value itself and the bits are unused.
+// A null tag means the value is undefined.
+public final class Values {
+    public static final Object INT = new Tag("int");
+    public static final Object DOUBLE = new Tag("double");
+    public static final Object BOOL = new Tag("boolean");
+
+    private Values() {
+    }
+
+    private static final class Tag {
+        private final String name;
+
+        Tag(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    public static boolean isPrimitive(Object tag) {
+        return tag == INT || tag == DOUBLE || tag == BOOL;
+    }
+
+    public static long bits(double value) {
+        return Double.doubleToRawLongBits(value);
+    }
+
+    public static long bits(boolean value) {
+        return value ? 1 : 0;
+    }
+
+    public static double asDouble(Object tag, long bits) {
+        if (tag == INT) {
+            return (int) bits;
+        } else if (tag == DOUBLE) {
+            return Double.longBitsToDouble(bits);
+        } else {
+            throw new RuntimeException("Unexpected value type: " + typeName(tag));
+        }
+    }
+
+    public static String typeName(Object tag) {
+        if (tag instanceof Rope) {
+            return String.class.getName(); // A Rope is just a string that hasn't been flattened yet
+        }
+        return isPrimitive(tag) ? tag.toString() : tag.getClass().getName();
+    }
+
+    // Formats a value the same way its boxed form would print
+    public static String toString(Object tag, long bits) {
+        if (tag == INT) {
+            return Integer.toString((int) bits);
+        } else if (tag == DOUBLE) {
+            return Double.toString(Double.longBitsToDouble(bits));
+        } else if (tag == BOOL) {
+            return Boolean.toString(bits != 0);
+        } else {
+            return String.valueOf(tag);
+        }
+    }
+
+    // Appends a value to builder, formatted as toString would, without creating an intermediate String
+    public static void appendTo(StringBuilder builder, Object tag, long bits) {
+        if (tag == INT) {
+            builder.append((int) bits);
+        } else if (tag == DOUBLE) {
+            builder.append(Double.longBitsToDouble(bits));
+        } else if (tag == BOOL) {
+            builder.append(bits != 0);
+        } else {
+            builder.append(String.valueOf(tag));
+        }
+    }
+
+    // Returns a value as text: strings and ropes as they are, anything else formatted
+    public static CharSequence text(Object tag, long bits) {
+        return tag instanceof CharSequence ? (CharSequence) tag : toString(tag, bits);
+    }
+
+    // Boxes a value for code that needs it as an Object
+    public static Object box(Object tag, long bits) {
+        if (tag == INT) {
+            return (int) bits;
+        } else if (tag == DOUBLE) {
+            return Double.longBitsToDouble(bits);
+        } else if (tag == BOOL) {
+            return bits != 0;
+        } else {
+            return tag;
+        }
+    }
+}
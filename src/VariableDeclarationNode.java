@@ -2,6 +2,10 @@ public class VariableDeclarationNode implements ASTNode {
     private String variableName;
     private ASTNode value;
 
+    // Frame slot assigned by the Resolver, and whether it is in the global frame
+    private int slot = -1;
+    private boolean global;
+
     public VariableDeclarationNode(String variableName, ASTNode value) {
         this.variableName = variableName;
         this.value = value;
@@ -14,4 +18,17 @@ public class VariableDeclarationNode implements ASTNode {
     public ASTNode getValue() {
         return value;
     }
+
+    public int getSlot() {
+        return slot;
+    }
+
+    public boolean isGlobal() {
+        return global;
+    }
+
+    public void setSlot(int slot, boolean global) {
+        this.slot = slot;
+        this.global = global;
+    }
 }
@@ -1,6 +1,10 @@
 public class VariableReferenceNode implements ASTNode {
     private String variableName;
 
+    // Frame slot assigned by the Resolver, and whether it is in the global frame
+    private int slot = -1;
+    private boolean global;
+
     public VariableReferenceNode(String variableName) {
         this.variableName = variableName;
     }
@@ -9,6 +13,19 @@ public class VariableReferenceNode implements ASTNode {
         return variableName;
     }
 
+    public int getSlot() {
+        return slot;
+    }
+
+    public boolean isGlobal() {
+        return global;
+    }
+
+    public void setSlot(int slot, boolean global) {
+        this.slot = slot;
+        this.global = global;
+    }
+
     @Override
     public String toString() {
         return "VariableReferenceNode{" + "variableName='" + variableName + '\'' + '}';
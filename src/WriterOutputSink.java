@@ -0,0 +1,63 @@
+// WriterOutputSink.java
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+// Streams output to a Writer as the program runs. Lines are copied into a fixed character buffer
+// that is written out whenever it fills up, so memory use doesn't grow with the amount printed.
+public class WriterOutputSink extends OutputSink {
+    private static final int BUFFER_SIZE = 8192;
+
+    private Writer writer;
+    private char[] buffer = new char[BUFFER_SIZE];
+    private int length;
+
+    public WriterOutputSink(Writer writer) {
+        this.writer = writer;
+    }
+
+    // Writes to a byte stream as UTF-8
+    public WriterOutputSink(OutputStream out) {
+        this(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+    }
+
+    @Override
+    protected void writeLine(StringBuilder line) {
+        int position = 0;
+        while (position < line.length()) {
+            if (length == buffer.length) {
+                writeBuffer();
+            }
+            int count = Math.min(line.length() - position, buffer.length - length);
+            line.getChars(position, position + count, buffer, length);
+            length += count;
+            position += count;
+        }
+        if (length == buffer.length) {
+            writeBuffer();
+        }
+        buffer[length++] = '\n';
+    }
+
+    @Override
+    public void flush() {
+        writeBuffer();
+        try {
+            writer.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void writeBuffer() {
+        try {
+            writer.write(buffer, 0, length);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        length = 0;
+    }
+}